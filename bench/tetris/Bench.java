@@ -0,0 +1,241 @@
+package tetris;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Small benchmark harness in the manner of JMH, for a project that has no build to pull JMH in with.
+ * A benchmark is an Op run over and over: first for the warm-up iterations, so that the JIT has
+ * compiled it, then for the measured ones. Each iteration runs the Op in batches until its time is up
+ * and gives one score in nanoseconds per operation. The value every Op returns is folded into a sink,
+ * so the JIT cannot drop the work as dead code.
+ *
+ * Besides the time, each benchmark reports the bytes allocated per operation by the measuring thread
+ * (HotSpot's ThreadMXBean) and the collections and collection time of every GarbageCollectorMXBean
+ * during the measured iterations, like JMH's GC profiler.
+ */
+public class Bench {
+
+	private static final int BATCH = 256; // operations between two reads of the clock
+
+	/**
+	 * The operation measured. index counts the operations run, so that an Op can cycle through its
+	 * inputs with index % inputs
+	 */
+	public interface Op {
+		long run(int index) throws Exception;
+	}
+
+	/**
+	 * Scores of one benchmark
+	 */
+	public static final class Result {
+		private final String name;
+		private final double[] nanosPerOp;	// per measured iteration
+		private final long ops;
+		private final double bytesPerOp;	// -1 if the JVM cannot tell
+		private final long gcCount;
+		private final long gcMillis;
+
+		Result(String name, double[] nanosPerOp, long ops, double bytesPerOp, long gcCount, long gcMillis) {
+			this.name = name;
+			this.nanosPerOp = nanosPerOp;
+			this.ops = ops;
+			this.bytesPerOp = bytesPerOp;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Description: Gives the mean time of an operation over the measured iterations
+		 * @return
+		 */
+		public double getNanosPerOp() {
+			double sum = 0;
+			for (double n : nanosPerOp) {
+				sum += n;
+			}
+			return sum / nanosPerOp.length;
+		}
+
+		/**
+		 * Description: Gives the standard deviation of the time of an operation between iterations
+		 * @return
+		 */
+		public double getStdev() {
+			if (nanosPerOp.length < 2) {
+				return 0;
+			}
+			double mean = getNanosPerOp();
+			double sum = 0;
+			for (double n : nanosPerOp) {
+				sum += (n - mean) * (n - mean);
+			}
+			return Math.sqrt(sum / (nanosPerOp.length - 1));
+		}
+
+		public double getOpsPerSecond() {
+			return 1e9 / getNanosPerOp();
+		}
+
+		public long getOps() {
+			return ops;
+		}
+
+		/**
+		 * Description: Gives the bytes allocated per operation, -1 if the JVM does not count them
+		 * @return
+		 */
+		public double getBytesPerOp() {
+			return bytesPerOp;
+		}
+
+		public long getGcCount() {
+			return gcCount;
+		}
+
+		public long getGcMillis() {
+			return gcMillis;
+		}
+	}
+
+	private final int warmupIterations;
+	private final int measureIterations;
+	private final long iterationNanos;
+	private long sink;
+
+	/**
+	 * Constructor for Bench
+	 * @param warmupIterations
+	 * @param measureIterations
+	 * @param iterationMillis time of one iteration
+	 */
+	public Bench(int warmupIterations, int measureIterations, long iterationMillis) {
+		this.warmupIterations = warmupIterations;
+		this.measureIterations = measureIterations;
+		this.iterationNanos = iterationMillis * 1000000;
+	}
+
+	/**
+	 * Description: Warms up and measures an Op
+	 * @param name
+	 * @param op
+	 * @return
+	 * @throws Exception
+	 */
+	public Result run(String name, Op op) throws Exception {
+		int index = 0;
+		for (int i = 0; i < warmupIterations; i++) {
+			index = iteration(op, index, null);
+		}
+
+		double[] nanosPerOp = new double[measureIterations];
+		long[] ops = new long[1];
+		long ops0 = 0;
+		long bytes0 = allocatedBytes();
+		long gcCount0 = gcCount();
+		long gcMillis0 = gcMillis();
+		for (int i = 0; i < measureIterations; i++) {
+			long start = System.nanoTime();
+			index = iteration(op, index, ops);
+			nanosPerOp[i] = (double) (System.nanoTime() - start) / (ops[0] - ops0);
+			ops0 = ops[0];
+		}
+		long bytes1 = allocatedBytes();
+		double bytesPerOp = bytes0 < 0 || bytes1 < 0 ? -1 : (double) (bytes1 - bytes0) / ops[0];
+		return new Result(name, nanosPerOp, ops[0], bytesPerOp, gcCount() - gcCount0, gcMillis() - gcMillis0);
+	}
+
+	private int iteration(Op op, int index, long[] ops) throws Exception {
+		long end = System.nanoTime() + iterationNanos;
+		long value = sink;
+		do {
+			for (int i = 0; i < BATCH; i++) {
+				value += op.run(index++ & Integer.MAX_VALUE);
+			}
+			if (ops != null) {
+				ops[0] += BATCH;
+			}
+		} while (System.nanoTime() < end);
+		sink = value;
+		return index;
+	}
+
+	/**
+	 * Description: Gives the value folded from everything the Ops returned, printing it keeps the work
+	 * of the Ops alive
+	 * @return
+	 */
+	public long getSink() {
+		return sink;
+	}
+
+	/**
+	 * Description: Gives the bytes allocated by the current thread so far, -1 if the JVM does not count
+	 * them
+	 * @return
+	 */
+	public static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Description: Gives the number of collections of every collector so far
+	 * @return
+	 */
+	public static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * Description: Gives the time spent in every collector so far
+	 * @return
+	 */
+	public static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	/**
+	 * Description: Prints the results as a table, one line for the time and one for the allocation and
+	 * collections of each benchmark
+	 * @param results
+	 */
+	public static void print(List<Result> results) {
+		int width = "Benchmark".length();
+		for (Result r : results) {
+			width = Math.max(width, r.getName().length() + ":gc.alloc.rate.norm".length());
+		}
+		String format = "%-" + width + "s %14s %12s  %s%n";
+		System.out.printf(format, "Benchmark", "Score", "Stdev", "Units");
+		for (Result r : results) {
+			System.out.printf(format, r.getName(), String.format("%.1f", r.getNanosPerOp()),
+							  String.format("%.1f", r.getStdev()), "ns/op");
+			System.out.printf(format, r.getName() + ":ops", String.format("%.0f", r.getOpsPerSecond()), "", "ops/s");
+			System.out.printf(format, r.getName() + ":gc.alloc.rate.norm",
+							  r.getBytesPerOp() < 0 ? "n/a" : String.format("%.1f", r.getBytesPerOp()), "", "B/op");
+			System.out.printf(format, r.getName() + ":gc.count", Long.toString(r.getGcCount()), "", "counts");
+			System.out.printf(format, r.getName() + ":gc.time", Long.toString(r.getGcMillis()), "", "ms");
+		}
+	}
+}
@@ -0,0 +1,455 @@
+package tetris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Differential test of the fast engines against the reference one. The reference is the game as
+ * first written: State.makeMove and PlayerSkeleton.pickMove on TestStates. A fast engine places pieces
+ * on a BitBoard and picks moves with a FeatureEngine ("batch", "table") or the BoundedMovePicker
+ * ("bounded"). Both play the same cases in lockstep, from an empty or a random board and with the
+ * pieces of a seed, or from the positions of a PositionCorpus given with -Dtetris.positions=<file>,
+ * carrying on the games they were taken from. After every piece the harness compares the chosen move,
+ * the rows cleared, every row of the board and the column tops.
+ *
+ * At the first difference the case is shrunk. It starts as late in the game as still shows the
+ * difference, and every filled cell that is not needed to show it is emptied. The smallest case is
+ * then printed. The time each engine spent picking and placing pieces is reported as pieces per second.
+ *
+ * Usage: DifferentialHarness [engines, comma separated or "all"] [cases] [pieces per case] [seed]. The
+ * number of cases and the seed are not used with a corpus.
+ */
+public class DifferentialHarness {
+
+	static final String[] ENGINES = { BatchFeatureEngine.NAME, TableFeatureEngine.NAME, "bounded" };
+
+	/**
+	 * A game engine: places pieces on its own board and picks moves with the default Gene
+	 */
+	abstract static class Engine {
+		protected final PlayerSkeleton player = new PlayerSkeleton();
+		protected final PlayerSkeleton.Gene gene = player.getGene();
+
+		abstract String getName();
+
+		/**
+		 * Description: Gives a new engine of the same kind, with nothing carried over from this one
+		 */
+		abstract Engine fresh();
+
+		/**
+		 * Description: Starts a game on the board (non 0 means filled) at the given turn of the pieces
+		 */
+		abstract void load(int[][] field, PieceSource pieces, int turn);
+
+		/**
+		 * Description: Gives the index in State.legalMoves() of the move picked for the piece
+		 */
+		abstract int pickMove(int piece) throws Exception;
+
+		/**
+		 * Description: Places the piece, giving the rows cleared or -1 if the move loses the game
+		 */
+		abstract int makeMove(int piece, int move);
+
+		/**
+		 * Description: Gives the mask of the filled cells of a row (bit c for column c)
+		 */
+		abstract int row(int r);
+
+		abstract int top(int c);
+	}
+
+	/**
+	 * The reference engine, State and the TestState path of pickMove
+	 */
+	static class ReferenceEngine extends Engine {
+		private State s;
+
+		ReferenceEngine() {
+			player.setFeatureEngine(null);
+		}
+
+		@Override
+		String getName() {
+			return "reference";
+		}
+
+		@Override
+		Engine fresh() {
+			return new ReferenceEngine();
+		}
+
+		@Override
+		void load(int[][] field, PieceSource pieces, int turn) {
+			s = State.at(field, turn, pieces.pieceAt(turn), pieces);
+		}
+
+		@Override
+		int pickMove(int piece) throws Exception {
+			return player.pickMove(s, s.legalMoves(), gene);
+		}
+
+		@Override
+		int makeMove(int piece, int move) {
+			int cleared = s.getRowsCleared();
+			s.makeMove(move);
+			return s.hasLost() ? -1 : s.getRowsCleared() - cleared;
+		}
+
+		@Override
+		int row(int r) {
+			return RowTables.mask(s.getField()[r]);
+		}
+
+		@Override
+		int top(int c) {
+			return s.getTop()[c];
+		}
+	}
+
+	/**
+	 * A BitBoard with one of the fast ways of picking moves
+	 */
+	static class FastEngine extends Engine {
+		private final String name;
+		private final FeatureEngine features;
+		private final BoundedMovePicker bounded;
+		private final BitBoard board = new BitBoard();
+		private final int[][] field = new int[State.ROWS][State.COLS];
+		private final int[] top = new int[State.COLS];
+
+		FastEngine(String name) {
+			this.name = name;
+			this.bounded = name.equals("bounded") ? new BoundedMovePicker() : null;
+			this.features = bounded == null ? FeatureEngine.forName(name) : null;
+			if (bounded == null && features == null) {
+				throw new IllegalArgumentException(name + " is the reference engine");
+			}
+		}
+
+		@Override
+		String getName() {
+			return name;
+		}
+
+		@Override
+		Engine fresh() {
+			return new FastEngine(name);
+		}
+
+		@Override
+		void load(int[][] field, PieceSource pieces, int turn) {
+			board.load(field);
+		}
+
+		@Override
+		int pickMove(int piece) {
+			// the pickers read the board as a field
+			int[] rows = board.getRows();
+			for (int r = 0; r < State.ROWS; r++) {
+				for (int c = 0; c < State.COLS; c++) {
+					field[r][c] = rows[r] >>> c & 1;
+				}
+			}
+			if (bounded != null) {
+				return bounded.pickMove(field, piece, State.legalMoves[piece], gene.getFeatureWeights(),
+										gene.getEvaluator());
+			}
+			for (int c = 0; c < State.COLS; c++) {
+				top[c] = board.height(c);
+			}
+			return player.pickMove(features.compute(field, top, piece, State.legalMoves[piece]), gene);
+		}
+
+		@Override
+		int makeMove(int piece, int move) {
+			int[] m = State.legalMoves[piece][move];
+			return board.place(piece, m[State.ORIENT], m[State.SLOT]);
+		}
+
+		@Override
+		int row(int r) {
+			return board.getRows()[r];
+		}
+
+		@Override
+		int top(int c) {
+			return board.height(c);
+		}
+	}
+
+	/**
+	 * A starting board, and the pieces of a seed from a given turn on
+	 */
+	static final class Case {
+		final int[][] field;
+		final long seed;
+		final int firstTurn;
+		final int pieces;
+
+		Case(int[][] field, long seed, int firstTurn, int pieces) {
+			this.field = field;
+			this.seed = seed;
+			this.firstTurn = firstTurn;
+			this.pieces = pieces;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder b = new StringBuilder();
+			b.append("seed ").append(seed).append(", turn ").append(firstTurn).append(", ").append(pieces)
+			 .append(" piece(s) from\n");
+			for (int r = State.ROWS - 1; r >= 0; r--) {
+				b.append('|');
+				for (int c = 0; c < State.COLS; c++) {
+					b.append(field[r][c] != 0 ? '#' : '.');
+				}
+				b.append("|\n");
+			}
+			return b.toString();
+		}
+	}
+
+	/**
+	 * The first difference of a fast engine from the reference in a case
+	 */
+	static final class Divergence {
+		final int step;
+		final String what;
+
+		Divergence(int step, String what) {
+			this.step = step;
+			this.what = what;
+		}
+	}
+
+	private final Engine reference;
+	private final Engine fast;
+	private long referenceNanos;
+	private long fastNanos;
+	private long pieces;
+
+	DifferentialHarness(Engine reference, Engine fast) {
+		this.reference = reference;
+		this.fast = fast;
+	}
+
+	/**
+	 * Description: Plays the case on both engines, adding the time of each, and gives the first
+	 * difference or null if there is none
+	 * @param c
+	 * @return
+	 * @throws Exception
+	 */
+	Divergence run(Case c) throws Exception {
+		return run(c, reference, fast, true);
+	}
+
+	private Divergence run(Case c, Engine reference, Engine fast, boolean timed) throws Exception {
+		PieceSource source = new SeededPieceSource(c.seed);
+		reference.load(c.field, source, c.firstTurn);
+		fast.load(c.field, source, c.firstTurn);
+		for (int step = 0; step < c.pieces; step++) {
+			int piece = source.pieceAt(c.firstTurn + step);
+
+			long start = System.nanoTime();
+			int expectedMove = reference.pickMove(piece);
+			int expectedRows = reference.makeMove(piece, expectedMove);
+			long middle = System.nanoTime();
+			int move = fast.pickMove(piece);
+			int rows = move == expectedMove ? fast.makeMove(piece, move) : 0;
+			if (timed) {
+				referenceNanos += middle - start;
+				fastNanos += System.nanoTime() - middle;
+				pieces++;
+			}
+
+			if (move != expectedMove) {
+				return new Divergence(step, "piece " + piece + ": move " + move + " "
+									  + Arrays.toString(State.legalMoves[piece][move]) + ", expected " + expectedMove
+									  + " " + Arrays.toString(State.legalMoves[piece][expectedMove]));
+			}
+			if (rows != expectedRows) {
+				return new Divergence(step, "piece " + piece + ", move " + move + ": " + rows
+									  + " rows cleared, expected " + expectedRows);
+			}
+			if (rows < 0) {
+				return null;
+			}
+			for (int r = 0; r < State.ROWS; r++) {
+				if (fast.row(r) != reference.row(r)) {
+					return new Divergence(step, "piece " + piece + ", move " + move + ": row " + r + " is "
+										  + Integer.toBinaryString(fast.row(r)) + ", expected "
+										  + Integer.toBinaryString(reference.row(r)));
+				}
+			}
+			for (int col = 0; col < State.COLS; col++) {
+				if (fast.top(col) != reference.top(col)) {
+					return new Divergence(step, "piece " + piece + ", move " + move + ": top of column " + col
+										  + " is " + fast.top(col) + ", expected " + reference.top(col));
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Description: Gives the smallest case found that still shows a difference: it starts as late as it
+	 * can before the divergence, and has as few filled cells as it can
+	 * @param c a case that diverges
+	 * @param d its divergence
+	 * @return
+	 * @throws Exception
+	 */
+	Case shrink(Case c, Divergence d) throws Exception {
+		// the reference boards before each piece up to the divergence
+		List<int[][]> boards = new ArrayList<int[][]>();
+		Engine replay = reference.fresh();
+		PieceSource source = new SeededPieceSource(c.seed);
+		replay.load(c.field, source, c.firstTurn);
+		for (int step = 0; step <= d.step; step++) {
+			int[][] board = new int[State.ROWS][State.COLS];
+			for (int r = 0; r < State.ROWS; r++) {
+				for (int col = 0; col < State.COLS; col++) {
+					board[r][col] = replay.row(r) >>> col & 1;
+				}
+			}
+			boards.add(board);
+			int piece = source.pieceAt(c.firstTurn + step);
+			replay.makeMove(piece, replay.pickMove(piece));
+		}
+
+		// start as late as still diverges, engines may carry state (e.g. caches) from earlier pieces
+		Case smallest = c;
+		for (int step = d.step; step >= 0; step--) {
+			Case later = new Case(boards.get(step), c.seed, c.firstTurn + step, d.step - step + 1);
+			if (diverges(later)) {
+				smallest = later;
+				break;
+			}
+		}
+
+		// empty every cell that is not needed, top rows first
+		boolean shrunk = true;
+		while (shrunk) {
+			shrunk = false;
+			for (int r = State.ROWS - 1; r >= 0; r--) {
+				for (int col = 0; col < State.COLS; col++) {
+					if (smallest.field[r][col] == 0) {
+						continue;
+					}
+					int[][] field = new int[State.ROWS][];
+					for (int i = 0; i < State.ROWS; i++) {
+						field[i] = smallest.field[i].clone();
+					}
+					field[r][col] = 0;
+					Case fewer = new Case(field, smallest.seed, smallest.firstTurn, smallest.pieces);
+					if (diverges(fewer)) {
+						smallest = fewer;
+						shrunk = true;
+					}
+				}
+			}
+		}
+		return smallest;
+	}
+
+	private boolean diverges(Case c) throws Exception {
+		return run(c, reference.fresh(), fast.fresh(), false) != null;
+	}
+
+	/**
+	 * Description: Gives the pieces per second of the reference and of the fast engine so far
+	 * @return
+	 */
+	double[] piecesPerSecond() {
+		return new double[] { pieces * 1e9 / Math.max(1, referenceNanos), pieces * 1e9 / Math.max(1, fastNanos) };
+	}
+
+	/**
+	 * Description: Gives a random board with a stack of up to ROWS - 6 rows. Rows are never full and cells
+	 * can float, as they do after rows are cleared
+	 * @param random
+	 * @return
+	 */
+	static int[][] randomBoard(Random random) {
+		int[][] field = new int[State.ROWS][State.COLS];
+		int height = random.nextInt(State.ROWS - 5);
+		for (int r = 0; r < height; r++) {
+			int mask = random.nextInt(RowTables.FULL);
+			for (int c = 0; c < State.COLS; c++) {
+				field[r][c] = mask >>> c & 1;
+			}
+		}
+		return field;
+	}
+
+	/**
+	 * Description: Gives the cases of a run: every fourth one starts on an empty board, the others on a
+	 * random board, and case i has the pieces of seed + i
+	 * @param count
+	 * @param pieces
+	 * @param seed
+	 * @return
+	 */
+	static List<Case> cases(int count, int pieces, long seed) {
+		List<Case> cases = new ArrayList<Case>();
+		for (int i = 0; i < count; i++) {
+			int[][] field = i % 4 == 0 ? new int[State.ROWS][State.COLS] : randomBoard(new Random(seed + i));
+			cases.add(new Case(field, seed + i, 0, pieces));
+		}
+		return cases;
+	}
+
+	/**
+	 * Description: Gives a case for each position of the corpus, carrying on its game
+	 * @param corpus
+	 * @param pieces
+	 * @return
+	 */
+	static List<Case> cases(PositionCorpus corpus, int pieces) {
+		List<Case> cases = new ArrayList<Case>();
+		for (PositionCorpus.Position position : corpus.getPositions()) {
+			cases.add(new Case(position.getField(), position.getSeed(), position.getTurn(), pieces));
+		}
+		return cases;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String[] engines = args.length > 0 && !args[0].equals("all") ? args[0].split(",") : ENGINES;
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int pieces = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+		PositionCorpus corpus = PositionCorpus.fromSystemProperty();
+		List<Case> cases = corpus != null ? cases(corpus, pieces) : cases(count, pieces, seed);
+		boolean failed = false;
+		for (String name : engines) {
+			DifferentialHarness harness = new DifferentialHarness(new ReferenceEngine(), new FastEngine(name));
+			int divergent = 0;
+			for (Case c : cases) {
+				Divergence d = harness.run(c);
+				if (d == null) {
+					continue;
+				}
+				if (divergent++ == 0) {
+					Case smallest = harness.shrink(c, d);
+					Divergence again = harness.run(smallest, harness.reference.fresh(), harness.fast.fresh(), false);
+					System.out.println(name + " diverges at piece " + d.step + " of seed " + c.seed + ", shrunk to "
+									   + smallest + (again != null ? again.what : d.what));
+				}
+			}
+			double[] speed = harness.piecesPerSecond();
+			System.out.println(String.format("%-10s %d cases, %d pieces, %d divergent; pieces/s reference %.0f, "
+											 + "%s %.0f (%.2fx)", name, cases.size(), harness.pieces, divergent,
+											 speed[0], name, speed[1], speed[1] / speed[0]));
+			failed |= divergent > 0;
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package tetris;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Microbenchmarks of the hot paths of a game and of fitness evaluation (see Bench): State.makeMove,
+ * TestState construction, the getValue() of each Heuristic, Gene.evaluateMove, pickMove, and whole
+ * games of playGame in pieces per second. The positions are those of a PositionCorpus given with
+ * -Dtetris.positions=<file>, which holds stacks of every height. Without one they are sampled from a
+ * seeded game of the default Gene, whose stack stays low.
+ *
+ * Usage: HotPathBenchmark [iteration ms] [positions] [seed]. The feature engine of pickMove is chosen
+ * with -Dtetris.features as usual.
+ */
+public class HotPathBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASURE_ITERATIONS = 5;
+	private static final int STRIDE = 7; // turns between two sampled positions
+
+	/**
+	 * Description: Plays the seeded game with the default Gene and keeps a copy of the State every
+	 * stride turns, until it has the given number of positions. A game that ends starts again with the
+	 * next seed
+	 * @param seed
+	 * @param count
+	 * @param stride
+	 * @return
+	 * @throws Exception
+	 */
+	static List<State> samplePositions(long seed, int count, int stride) throws Exception {
+		PlayerSkeleton p = new PlayerSkeleton();
+		List<State> positions = new ArrayList<State>();
+		State s = new State(new SeededPieceSource(seed));
+		while (positions.size() < count) {
+			if (s.hasLost()) {
+				s = new State(new SeededPieceSource(++seed));
+			}
+			if (s.getTurnNumber() % stride == stride - 1) {
+				positions.add(new State(s));
+			}
+			s.makeMove(p.pickMove(s, s.legalMoves(), p.getGene()));
+		}
+		return positions;
+	}
+
+	/**
+	 * Description: Gives the States of count positions spread evenly over the corpus, or of all of them
+	 * if it holds fewer
+	 * @param corpus
+	 * @param count
+	 * @return
+	 */
+	static List<State> corpusPositions(PositionCorpus corpus, int count) {
+		List<PositionCorpus.Position> all = corpus.getPositions();
+		List<State> positions = new ArrayList<State>();
+		int n = Math.min(count, all.size());
+		for (int i = 0; i < n; i++) {
+			positions.add(all.get((int) ((long) i * all.size() / n)).toState());
+		}
+		return positions;
+	}
+
+	private static int[][] copy(int[][] board) {
+		int[][] copy = new int[board.length][];
+		for (int r = 0; r < board.length; r++) {
+			copy[r] = board[r].clone();
+		}
+		return copy;
+	}
+
+	public static void main(String[] args) throws Exception {
+		long iterationMillis = args.length > 0 ? Long.parseLong(args[0]) : 500;
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+		final PlayerSkeleton p = new PlayerSkeleton();
+		final PlayerSkeleton.Gene gene = p.getGene();
+		final PlayerSkeleton bounded = new PlayerSkeleton();
+		bounded.setBoundedPicker(new BoundedMovePicker());
+
+		// positions, the move the default Gene makes on each, and the TestState of every legal move
+		PositionCorpus corpus = PositionCorpus.fromSystemProperty();
+		final State[] positions = (corpus != null ? corpusPositions(corpus, count)
+								   : samplePositions(seed, count, STRIDE)).toArray(new State[0]);
+		final int[] moves = new int[positions.length];
+		final List<int[]> pairs = new ArrayList<int[]>();	// position, move
+		final List<PlayerSkeleton.TestState> kept = new ArrayList<PlayerSkeleton.TestState>();
+		for (int i = 0; i < positions.length; i++) {
+			State s = positions[i];
+			moves[i] = p.pickMove(s, s.legalMoves(), gene);
+			for (int m = 0; m < s.legalMoves().length; m++) {
+				pairs.add(new int[] { i, m });
+				PlayerSkeleton.TestState t = p.new TestState(copy(s.getField()), s.getTop().clone(),
+															 s.getNextPiece(), s.legalMoves()[m]);
+				if (t.getBoard() != null) {
+					kept.add(t);
+				}
+			}
+		}
+		final PlayerSkeleton.TestState[] testStates = kept.toArray(new PlayerSkeleton.TestState[0]);
+		final PlayerSkeleton.TestStateArena arena = p.new TestStateArena();
+		System.out.println(positions.length + " positions" + (corpus != null ? " of "
+						   + System.getProperty(PositionCorpus.PROPERTY) : "") + ", " + pairs.size() + " moves, "
+						   + testStates.length + " not losing; feature engine "
+						   + System.getProperty("tetris.features", "scalar"));
+
+		Bench bench = new Bench(WARMUP_ITERATIONS, MEASURE_ITERATIONS, iterationMillis);
+		List<Bench.Result> results = new ArrayList<Bench.Result>();
+
+		results.add(bench.run("State.copy", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return new State(positions[index % positions.length]).getTurnNumber();
+			}
+		}));
+		results.add(bench.run("State.copy+makeMove", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				int i = index % positions.length;
+				State s = new State(positions[i]);
+				s.makeMove(moves[i]);
+				return s.getRowsCleared();
+			}
+		}));
+		results.add(bench.run("TestState", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				int[] pair = pairs.get(index % pairs.size());
+				State s = positions[pair[0]];
+				PlayerSkeleton.TestState t = arena.next(s.getField(), s.getTop(), s.getNextPiece(),
+														s.legalMoves()[pair[1]]);
+				long value = t.getRowsCleared();
+				arena.release();
+				return value;
+			}
+		}));
+
+		List<PlayerSkeleton.Heuristic> heuristics = new ArrayList<PlayerSkeleton.Heuristic>();
+		heuristics.add(p.new FilledLinesHeuristic());
+		heuristics.add(p.new HolesHeuristic());
+		heuristics.add(p.new WellSumsHeuristic());
+		heuristics.add(p.new LandingHeightHeuristic());
+		heuristics.add(p.new RowTransitionsHeuristic());
+		heuristics.add(p.new ColTransitionsHeuristic());
+		for (final PlayerSkeleton.Heuristic h : heuristics) {
+			results.add(bench.run(h.getClass().getSimpleName() + ".getValue", new Bench.Op() {
+				@Override
+				public long run(int index) throws Exception {
+					h.setTestState(testStates[index % testStates.length]);
+					return (long) h.getValue();
+				}
+			}));
+		}
+
+		results.add(bench.run("Gene.evaluateMove", new Bench.Op() {
+			@Override
+			public long run(int index) throws Exception {
+				gene.setTestState(testStates[index % testStates.length]);
+				return Double.doubleToRawLongBits(gene.evaluateMove());
+			}
+		}));
+		results.add(bench.run("pickMove", new Bench.Op() {
+			@Override
+			public long run(int index) throws Exception {
+				State s = positions[index % positions.length];
+				return p.pickMove(s, s.legalMoves(), gene);
+			}
+		}));
+		results.add(bench.run("pickMove.bounded", new Bench.Op() {
+			@Override
+			public long run(int index) throws Exception {
+				State s = positions[index % positions.length];
+				return bounded.pickMove(s, s.legalMoves(), gene);
+			}
+		}));
+
+		// one operation is one piece of a seeded game, which starts again when it ends
+		final long gameSeed = seed;
+		results.add(bench.run("playGame", new Bench.Op() {
+			private State game = new State(new SeededPieceSource(gameSeed));
+
+			@Override
+			public long run(int index) throws Exception {
+				if (game.hasLost()) {
+					game = new State(new SeededPieceSource(gameSeed));
+				}
+				game.makeMove(p.pickMove(game, game.legalMoves(), gene));
+				return game.getRowsCleared();
+			}
+		}));
+
+		Bench.print(results);
+		System.out.println("(sink " + bench.getSink() + ")");
+	}
+}
@@ -0,0 +1,344 @@
+package tetris;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Macro benchmark of how fitness evaluation scales with threads. The first genes of a population file
+ * each play the same seeded games, capped at a number of pieces so that strong genes finish, with 1, 2,
+ * 4 ... up to the given number of threads. Two modes are measured:
+ *
+ *   pool:     what the genetic algorithm runs. One GenePool holds fresh copies of the genes, every
+ *             thread calls GenePool.setFitness(genes, seed) on its own slice of them, so the games go
+ *             through LockstepGame, the shared FeatureCache and an EvolutionJournal in a temporary
+ *             file. Each gene plays the pool's own number of games.
+ *   baseline: a plain loop of pickMove. The threads take (gene, game) tasks from a shared counter and
+ *             share one FeatureCache, with the given number of games per gene. It shows what the pool's
+ *             machinery costs or saves.
+ *
+ * A warm-up run of each mode with every thread comes first and is not reported.
+ *
+ * For each thread count it reports games and pieces per second, the speedup over one thread, the
+ * parallel efficiency (speedup / threads), the collections and collection time, the bytes allocated by
+ * the workers, and the imbalance of the work (busiest thread's time over the mean). Low efficiency with
+ * a high imbalance points at the work distribution, with a high collection time at allocation, and
+ * with neither at contention on shared state. The same rows are written as CSV to compare builds.
+ *
+ * Usage: ScalingBenchmark <population file> [genes] [baseline games per gene] [max pieces] [max threads]
+ * [csv file]
+ */
+public class ScalingBenchmark {
+
+	private static final int FEATURE_CACHE_SIZE = 1 << 18; // as in GenePool
+	private static final long SEED = 0;
+
+	/**
+	 * Measures of one mode and thread count
+	 */
+	static final class Row {
+		String mode;
+		int threads;
+		long games;
+		long pieces;
+		double seconds;
+		long gcCount;
+		long gcMillis;
+		long allocatedBytes;
+		double imbalance;
+
+		double gamesPerSecond() {
+			return games / seconds;
+		}
+
+		double piecesPerSecond() {
+			return pieces / seconds;
+		}
+	}
+
+	private final double[][] weights;
+	private final int gamesPerGene;
+	private final int maxPieces;
+
+	/**
+	 * Constructor for ScalingBenchmark
+	 * @param weights weights of the genes to evaluate
+	 * @param gamesPerGene
+	 * @param maxPieces pieces after which a game is stopped
+	 */
+	public ScalingBenchmark(double[][] weights, int gamesPerGene, int maxPieces) {
+		this.weights = weights;
+		this.gamesPerGene = gamesPerGene;
+		this.maxPieces = maxPieces;
+	}
+
+	/**
+	 * Work of one thread of a run
+	 */
+	interface Work {
+		void run(int thread, int threads) throws Exception;
+	}
+
+	/**
+	 * Description: Runs the work on the given number of threads and measures the time, collections,
+	 * allocation and imbalance of the run. Games and pieces are left to the caller
+	 * @param mode
+	 * @param threads
+	 * @param work
+	 * @return
+	 * @throws Exception
+	 */
+	private static Row measure(String mode, final int threads, final Work work) throws Exception {
+		final LongAdder allocated = new LongAdder();
+		final long[] busyNanos = new long[threads];
+		final Exception[] failure = new Exception[1];
+
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					long bytes = Bench.allocatedBytes();
+					try {
+						work.run(id, threads);
+					} catch (Exception e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					}
+					allocated.add(Bench.allocatedBytes() - bytes);
+					busyNanos[id] = System.nanoTime() - start;
+				}
+			}, "evaluator-" + t);
+		}
+
+		long gcCount = Bench.gcCount();
+		long gcMillis = Bench.gcMillis();
+		long start = System.nanoTime();
+		for (Thread w : workers) {
+			w.start();
+		}
+		for (Thread w : workers) {
+			w.join();
+		}
+		Row row = new Row();
+		row.seconds = (System.nanoTime() - start) / 1e9;
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		row.mode = mode;
+		row.threads = threads;
+		row.gcCount = Bench.gcCount() - gcCount;
+		row.gcMillis = Bench.gcMillis() - gcMillis;
+		row.allocatedBytes = allocated.sum();
+		long max = 0;
+		long sum = 0;
+		for (long busy : busyNanos) {
+			max = Math.max(max, busy);
+			sum += busy;
+		}
+		row.imbalance = (double) max * threads / sum;
+		return row;
+	}
+
+	/**
+	 * Description: Evaluates every gene on its games with a plain loop of pickMove on the given number
+	 * of threads
+	 * @param threads
+	 * @return
+	 * @throws Exception
+	 */
+	Row runBaseline(int threads) throws Exception {
+		final FeatureCache featureCache = new FeatureCache(FEATURE_CACHE_SIZE);
+		final int tasks = weights.length * gamesPerGene;
+		final AtomicInteger next = new AtomicInteger();
+		final LongAdder games = new LongAdder();
+		final LongAdder pieces = new LongAdder();
+
+		Row row = measure("baseline", threads, new Work() {
+			@Override
+			public void run(int thread, int threads) throws Exception {
+				PlayerSkeleton p = new PlayerSkeleton();
+				p.setFeatureCache(featureCache);
+				int task;
+				while ((task = next.getAndIncrement()) < tasks) {
+					PlayerSkeleton.Gene g = gene(p, weights[task / gamesPerGene]);
+					State s = new State(new SeededPieceSource(SEED + task % gamesPerGene));
+					while (!s.hasLost() && s.getTurnNumber() < maxPieces) {
+						s.makeMove(p.pickMove(s, s.legalMoves(), g));
+					}
+					games.increment();
+					pieces.add(s.getTurnNumber());
+				}
+			}
+		});
+		row.games = games.sum();
+		row.pieces = pieces.sum();
+		return row;
+	}
+
+	/**
+	 * Description: Evaluates fresh copies of the genes with GenePool.setFitness() on the given number
+	 * of threads, each thread taking an equal slice of the genes. The games and pieces are read back
+	 * from the pool's journal, and the run fails if a game is missing from it
+	 * @param threads
+	 * @return
+	 * @throws Exception
+	 */
+	Row runPool(int threads) throws Exception {
+		PlayerSkeleton p = new PlayerSkeleton();
+		final ArrayList<PlayerSkeleton.Gene> genes = new ArrayList<PlayerSkeleton.Gene>();
+		for (double[] w : weights) {
+			genes.add(gene(p, w));
+		}
+		final PlayerSkeleton.GenePool pool = p.new GenePool(genes);
+		pool.setMaxPieces(maxPieces);
+		pool.setVerbose(false);	// setFitness() reports every game, which would flood the table
+		Path journal = Files.createTempFile("scaling", ".journal");
+		Files.delete(journal);
+
+		pool.openJournal(journal.toString());
+		Row row;
+		try {
+			row = measure("pool", threads, new Work() {
+				@Override
+				public void run(int thread, int threads) throws Exception {
+					ArrayList<PlayerSkeleton.Gene> slice = new ArrayList<PlayerSkeleton.Gene>(
+							genes.subList(thread * genes.size() / threads, (thread + 1) * genes.size() / threads));
+					pool.setFitness(slice, SEED);
+				}
+			});
+		} finally {
+			pool.closeJournal();
+		}
+
+		for (EvolutionJournal.Result r : EvolutionJournal.read(journal)) {
+			row.games++;
+			row.pieces += r.getPieces();
+		}
+		Files.delete(journal);
+		// a game that failed is missing from the journal and would only show as a lower rate
+		long expected = (long) genes.size() * pool.getGamesPerGene();
+		if (row.games != expected) {
+			throw new IllegalStateException("The pool finished " + row.games + " of " + expected + " games");
+		}
+		return row;
+	}
+
+	/**
+	 * Description: Makes a Gene of the six feature heuristics from weights in feature order (see Features)
+	 */
+	private static PlayerSkeleton.Gene gene(PlayerSkeleton p, double[] weights) {
+		PlayerSkeleton.Gene g = p.new Gene();
+		g.addHeuristic(p.new FilledLinesHeuristic(), weights[Features.FILLED_LINES]);
+		g.addHeuristic(p.new HolesHeuristic(), weights[Features.HOLES]);
+		g.addHeuristic(p.new WellSumsHeuristic(), weights[Features.WELL_SUMS]);
+		g.addHeuristic(p.new LandingHeightHeuristic(), weights[Features.LANDING_HEIGHT]);
+		g.addHeuristic(p.new RowTransitionsHeuristic(), weights[Features.ROW_TRANSITIONS]);
+		g.addHeuristic(p.new ColTransitionsHeuristic(), weights[Features.COL_TRANSITIONS]);
+		return g;
+	}
+
+	/**
+	 * Description: Gives 1, 2, 4 ... up to max threads, ending with max itself
+	 * @param max
+	 * @return
+	 */
+	static List<Integer> threadCounts(int max) {
+		List<Integer> counts = new ArrayList<Integer>();
+		for (int t = 1; t < max; t *= 2) {
+			counts.add(t);
+		}
+		counts.add(max);
+		return counts;
+	}
+
+	/**
+	 * Description: Gives the speedup of a row over the first row of its mode, per thread of that row
+	 * @param rows
+	 * @param r
+	 * @return
+	 */
+	static double speedup(List<Row> rows, Row r) {
+		for (Row first : rows) {
+			if (first.mode.equals(r.mode)) {
+				return r.piecesPerSecond() / (first.piecesPerSecond() / first.threads);
+			}
+		}
+		return 1;
+	}
+
+	static void writeCsv(PrintStream out, List<Row> rows) {
+		out.println("mode,threads,games,pieces,seconds,games_per_s,pieces_per_s,speedup,efficiency,gc_count,"
+					+ "gc_ms,alloc_bytes,imbalance");
+		for (Row r : rows) {
+			double speedup = speedup(rows, r);
+			out.println(String.format("%s,%d,%d,%d,%.3f,%.3f,%.1f,%.3f,%.3f,%d,%d,%d,%.3f", r.mode, r.threads,
+									  r.games, r.pieces, r.seconds, r.gamesPerSecond(), r.piecesPerSecond(), speedup,
+									  speedup / r.threads, r.gcCount, r.gcMillis, r.allocatedBytes, r.imbalance));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: ScalingBenchmark <population file> [genes] [games per gene] [max pieces] "
+							   + "[max threads] [csv file]");
+			System.exit(1);
+		}
+		PopulationFile population = PopulationFile.read(Paths.get(args[0]));
+		int genes = Math.min(population.size(), args.length > 1 ? Integer.parseInt(args[1]) : 32);
+		int gamesPerGene = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		int maxPieces = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+		int maxThreads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		String[] names = new String[Features.COUNT];
+		for (int f = 0; f < Features.COUNT; f++) {
+			names[f] = Features.name(f);
+		}
+		int[] columns = population.columns(names);
+
+		// weights in feature order, whatever the order of the file
+		double[][] weights = new double[genes][Features.COUNT];
+		for (int i = 0; i < genes; i++) {
+			for (int f = 0; f < Features.COUNT; f++) {
+				weights[i][f] = population.getWeights(i)[columns[f]];
+			}
+		}
+		ScalingBenchmark benchmark = new ScalingBenchmark(weights, gamesPerGene, maxPieces);
+		System.out.println(genes + " genes, games of at most " + maxPieces + " pieces (" + gamesPerGene
+						   + " per gene in the baseline), " + Runtime.getRuntime().availableProcessors()
+						   + " processors");
+		benchmark.runPool(maxThreads);
+		benchmark.runBaseline(maxThreads);
+
+		List<Row> rows = new ArrayList<Row>();
+		System.out.println(String.format("%-8s %7s %10s %12s %8s %11s %6s %6s %10s %9s", "mode", "threads",
+										 "games/s", "pieces/s", "speedup", "efficiency", "gc", "gc ms",
+										 "alloc MB", "imbalance"));
+		for (String mode : new String[] { "pool", "baseline" }) {
+			for (int threads : threadCounts(maxThreads)) {
+				Row r = mode.equals("pool") ? benchmark.runPool(threads) : benchmark.runBaseline(threads);
+				rows.add(r);
+				double speedup = speedup(rows, r);
+				System.out.println(String.format("%-8s %7d %10.2f %12.0f %8.2f %11.2f %6d %6d %10.1f %9.2f", mode,
+												 threads, r.gamesPerSecond(), r.piecesPerSecond(), speedup,
+												 speedup / threads, r.gcCount, r.gcMillis, r.allocatedBytes / 1e6,
+												 r.imbalance));
+			}
+		}
+
+		if (args.length > 5) {
+			try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(args[5])), false, "UTF-8")) {
+				writeCsv(out, rows);
+			}
+		} else {
+			writeCsv(System.out, rows);
+		}
+	}
+}
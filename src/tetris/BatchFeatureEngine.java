@@ -0,0 +1,231 @@
+package tetris;
+
+/**
+ * Feature engine that computes the features of all the legal moves of a piece together. The boards
+ * after each move are stored struct-of-arrays: one 0/1 int per cell and move, with the moves of a cell
+ * next to each other. Every feature kernel then loops over the moves innermost with no branches, which
+ * the JIT can turn into SIMD instructions.
+ */
+public class BatchFeatureEngine extends FeatureEngine {
+
+	public static final String NAME = "batch";
+
+	private static final int ROWS = State.ROWS;
+	private static final int COLS = State.COLS;
+	private static final int MAX_MOVES = maxMoves();
+
+	// cell (r, c) of the board after move m is cells[(r * COLS + c) * MAX_MOVES + m]
+	private final int[] cells = new int[ROWS * COLS * MAX_MOVES];
+	private final boolean[] lost = new boolean[MAX_MOVES];
+	private final int[] landing = new int[MAX_MOVES];
+
+	// per move accumulators
+	private final int[] holes = new int[MAX_MOVES];
+	private final int[] wells = new int[MAX_MOVES];
+	private final int[] rowTrans = new int[MAX_MOVES];
+	private final int[] colTrans = new int[MAX_MOVES];
+	private final int[] prev = new int[MAX_MOVES];
+	private final int[] run = new int[MAX_MOVES];
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int[][] compute(int[][] field, int[] top, int piece, int[][] legalMoves) {
+		int n = legalMoves.length;
+		fill(field, n);
+		for (int m = 0; m < n; m++) {
+			place(top, piece, legalMoves[m], m);
+		}
+
+		holes(n);
+		wells(n);
+		rowTransitions(n);
+		colTransitions(n);
+
+		int[][] features = new int[n][];
+		for (int m = 0; m < n; m++) {
+			if (lost[m]) {
+				features[m] = FeatureCache.LOST;
+				continue;
+			}
+			int[] f = new int[Features.COUNT];
+			// FILLED_LINES stays 0, see Features.compute()
+			f[Features.HOLES] = holes[m];
+			f[Features.WELL_SUMS] = wells[m];
+			f[Features.LANDING_HEIGHT] = landing[m];
+			f[Features.ROW_TRANSITIONS] = rowTrans[m];
+			f[Features.COL_TRANSITIONS] = colTrans[m];
+			features[m] = f;
+		}
+		return features;
+	}
+
+	/**
+	 * Description: Copies the board into the first n move planes
+	 */
+	private void fill(int[][] field, int n) {
+		for (int r = 0; r < ROWS; r++) {
+			for (int c = 0; c < COLS; c++) {
+				int v = field[r][c] != 0 ? 1 : 0;
+				int base = (r * COLS + c) * MAX_MOVES;
+				for (int m = 0; m < n; m++) {
+					cells[base + m] = v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Description: Drops the piece into plane m and clears full rows, as TestState does
+	 */
+	private void place(int[] top, int piece, int[] move, int m) {
+		int orient = move[State.ORIENT];
+		int slot = move[State.SLOT];
+		int width = State.getpWidth()[piece][orient];
+		int pieceHt = State.getpHeight()[piece][orient];
+		int[] bottom = State.getpBottom()[piece][orient];
+		int[] pTop = State.getpTop()[piece][orient];
+
+		int height = top[slot] - bottom[0];
+		for (int c = 1; c < width; c++) {
+			height = Math.max(height, top[slot + c] - bottom[c]);
+		}
+		landing[m] = Features.landingHeight(top[slot], pieceHt);
+		lost[m] = height + pieceHt >= ROWS;
+		if (lost[m]) {
+			return;
+		}
+
+		for (int c = 0; c < width; c++) {
+			for (int h = height + bottom[c]; h < height + pTop[c]; h++) {
+				cells[(h * COLS + slot + c) * MAX_MOVES + m] = 1;
+			}
+		}
+
+		// check for full rows - starting at the top so lower rows keep their index
+		for (int r = height + pieceHt - 1; r >= height; r--) {
+			int filled = 0;
+			for (int c = 0; c < COLS; c++) {
+				filled += cells[(r * COLS + c) * MAX_MOVES + m];
+			}
+			if (filled == COLS) {
+				for (int i = r; i < ROWS - 1; i++) {
+					for (int c = 0; c < COLS; c++) {
+						cells[(i * COLS + c) * MAX_MOVES + m] = cells[((i + 1) * COLS + c) * MAX_MOVES + m];
+					}
+				}
+				for (int c = 0; c < COLS; c++) {
+					cells[((ROWS - 1) * COLS + c) * MAX_MOVES + m] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Description: Empty cells under a filled cell of their column, scanning each column downwards
+	 */
+	private void holes(int n) {
+		clear(holes, n);
+		for (int c = 0; c < COLS; c++) {
+			// prev holds whether a filled cell was seen above
+			clear(prev, n);
+			for (int r = ROWS - 1; r >= 0; r--) {
+				int base = (r * COLS + c) * MAX_MOVES;
+				for (int m = 0; m < n; m++) {
+					int v = cells[base + m];
+					prev[m] |= v;
+					holes[m] += prev[m] & (v ^ 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Description: Well sums, scanning each column upwards and keeping the length of the current run of
+	 * empty cells. Every well cell adds the run ending at it
+	 */
+	private void wells(int n) {
+		clear(wells, n);
+		for (int c = 0; c < COLS; c++) {
+			clear(run, n);
+			for (int r = 0; r < ROWS; r++) {
+				int base = (r * COLS + c) * MAX_MOVES;
+				int leftBase = base - MAX_MOVES;
+				int rightBase = base + MAX_MOVES;
+				for (int m = 0; m < n; m++) {
+					int empty = cells[base + m] ^ 1;
+					int left = c == 0 ? 1 : cells[leftBase + m];
+					int right = c == COLS - 1 ? 1 : cells[rightBase + m];
+					run[m] = (run[m] + 1) & -empty;
+					wells[m] += run[m] & -(empty & left & right);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Description: Row transitions of every row but the top one, walls count as filled
+	 */
+	private void rowTransitions(int n) {
+		clear(rowTrans, n);
+		for (int r = 0; r < ROWS - 1; r++) {
+			fillOnes(prev, n);
+			for (int c = 0; c < COLS; c++) {
+				int base = (r * COLS + c) * MAX_MOVES;
+				for (int m = 0; m < n; m++) {
+					int v = cells[base + m];
+					rowTrans[m] += v ^ prev[m];
+					prev[m] = v;
+				}
+			}
+			for (int m = 0; m < n; m++) {
+				rowTrans[m] += prev[m] ^ 1;
+			}
+		}
+	}
+
+	/**
+	 * Description: Column transitions, the floor counts as filled
+	 */
+	private void colTransitions(int n) {
+		clear(colTrans, n);
+		for (int c = 0; c < COLS; c++) {
+			fillOnes(prev, n);
+			for (int r = 0; r < ROWS; r++) {
+				int base = (r * COLS + c) * MAX_MOVES;
+				for (int m = 0; m < n; m++) {
+					int v = cells[base + m];
+					colTrans[m] += v ^ prev[m];
+					prev[m] = v;
+				}
+			}
+		}
+	}
+
+	private static void clear(int[] a, int n) {
+		for (int m = 0; m < n; m++) {
+			a[m] = 0;
+		}
+	}
+
+	private static void fillOnes(int[] a, int n) {
+		for (int m = 0; m < n; m++) {
+			a[m] = 1;
+		}
+	}
+
+	private static int maxMoves() {
+		int max = 0;
+		for (int i = 0; i < State.N_PIECES; i++) {
+			int n = 0;
+			for (int j = 0; j < State.getpOrients()[i]; j++) {
+				n += COLS + 1 - State.getpWidth()[i][j];
+			}
+			max = Math.max(max, n);
+		}
+		return max;
+	}
+}
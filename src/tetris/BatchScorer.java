@@ -0,0 +1,95 @@
+package tetris;
+
+import java.util.Arrays;
+
+/**
+ * Scores the legal moves of a position for many Genes at once. The feature vectors of the moves are
+ * laid out as a matrix (moves x Features.COUNT) and multiplied by a weight matrix (Features.COUNT x
+ * genes), keeping the best move of every Gene. The inner loops run over plain primitive arrays so the
+ * JIT can unroll and vectorize them.
+ */
+public final class BatchScorer {
+
+	// same starting score as PlayerSkeleton.pickMove()
+	private static final double NO_SCORE = -1000000;
+
+	private BatchScorer() {
+	}
+
+	/**
+	 * Description: Lays out feature vectors (as given by PlayerSkeleton.featureVectors()) as a 
+	 * moves x Features.COUNT matrix. Rows of losing moves are left at 0 and flagged in lost
+	 * @param features
+	 * @param lost filled in, one entry per move
+	 * @return
+	 */
+	public static int[] featureMatrix(int[][] features, boolean[] lost) {
+		int[] matrix = new int[features.length * Features.COUNT];
+		for (int m = 0; m < features.length; m++) {
+			lost[m] = features[m] == FeatureCache.LOST;
+			if (!lost[m]) {
+				System.arraycopy(features[m], 0, matrix, m * Features.COUNT, Features.COUNT);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * Description: Lays out the weights of several Genes (each indexed by feature, see 
+	 * Gene.getFeatureWeights()) as a Features.COUNT x genes matrix
+	 * @param featureWeights
+	 * @return
+	 */
+	public static double[] weightMatrix(double[][] featureWeights) {
+		int genes = featureWeights.length;
+		double[] matrix = new double[Features.COUNT * genes];
+		for (int g = 0; g < genes; g++) {
+			for (int f = 0; f < Features.COUNT; f++) {
+				matrix[f * genes + g] = featureWeights[g][f];
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * Description: Gives the best move of every Gene. Ties and losing positions are resolved as in 
+	 * PlayerSkeleton.pickMove(): the first best move wins and move 0 is given when every move loses
+	 * @param features see featureMatrix()
+	 * @param lost
+	 * @param moves
+	 * @param weights see weightMatrix()
+	 * @param genes
+	 * @return
+	 */
+	public static int[] bestMoves(int[] features, boolean[] lost, int moves, double[] weights, int genes) {
+		int[] best = new int[genes];
+		double[] bestScore = new double[genes];
+		double[] score = new double[genes];
+		Arrays.fill(bestScore, NO_SCORE);
+
+		for (int m = 0; m < moves; m++) {
+			if (lost[m]) {
+				continue;
+			}
+			Arrays.fill(score, 0);
+			int base = m * Features.COUNT;
+			for (int f = 0; f < Features.COUNT; f++) {
+				int value = features[base + f];
+				if (value == 0) {
+					continue;
+				}
+				int row = f * genes;
+				for (int g = 0; g < genes; g++) {
+					score[g] += weights[row + g] * value;
+				}
+			}
+			for (int g = 0; g < genes; g++) {
+				if (score[g] > bestScore[g]) {
+					bestScore[g] = score[g];
+					best[g] = m;
+				}
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,116 @@
+package tetris;
+
+/**
+ * Bitmask board kept in two views at once: row masks (bit c of rows[r] is column c) and column masks
+ * (bit r of cols[c] is row r). Both views are updated together when a piece is placed and when rows
+ * are cleared, so row features and column features can each be read a whole mask at a time. Column
+ * heights are kept as well, and landing positions come from the SurfaceCache.
+ */
+public class BitBoard {
+
+	private static final int ROWS = State.ROWS;
+	private static final int COLS = State.COLS;
+
+	private final int[] rows = new int[ROWS];
+	private final int[] cols = new int[COLS];
+	private final int[] heights = new int[COLS];
+
+	/**
+	 * Description: Sets the board to the given field (non 0 means filled)
+	 * @param field
+	 */
+	public void load(int[][] field) {
+		for (int c = 0; c < COLS; c++) {
+			cols[c] = 0;
+		}
+		for (int r = 0; r < ROWS; r++) {
+			int mask = RowTables.mask(field[r]);
+			rows[r] = mask;
+			for (int m = mask; m != 0; m &= m - 1) {
+				cols[Integer.numberOfTrailingZeros(m)] |= 1 << r;
+			}
+		}
+		for (int c = 0; c < COLS; c++) {
+			heights[c] = 32 - Integer.numberOfLeadingZeros(cols[c]);
+		}
+	}
+
+	/**
+	 * Description: Makes this board a copy of the given one
+	 * @param b
+	 */
+	public void copyFrom(BitBoard b) {
+		System.arraycopy(b.rows, 0, rows, 0, ROWS);
+		System.arraycopy(b.cols, 0, cols, 0, COLS);
+		System.arraycopy(b.heights, 0, heights, 0, COLS);
+	}
+
+	/**
+	 * Description: Height of a column, i.e. its highest filled row + 1
+	 * @param col
+	 * @return
+	 */
+	public int height(int col) {
+		return heights[col];
+	}
+
+	public int[] getRows() {
+		return rows;
+	}
+
+	public int[] getCols() {
+		return cols;
+	}
+
+	/**
+	 * Description: Drops a piece and removes the rows it fills, as State.makeMove() does. Returns the
+	 * number of rows cleared, or -1 (leaving the board as it was) if the move loses the game
+	 * @param piece
+	 * @param orient
+	 * @param slot
+	 * @return
+	 */
+	public int place(int piece, int orient, int slot) {
+		int width = State.getpWidth()[piece][orient];
+		int pieceHt = State.getpHeight()[piece][orient];
+		int[] bottom = State.getpBottom()[piece][orient];
+		int[] pTop = State.getpTop()[piece][orient];
+
+		int base = SurfaceCache.base(piece, orient, slot, heights);
+		int landing = SurfaceCache.lookup(piece, orient, slot, heights, base);
+		int height = base + SurfaceCache.landingOffset(landing);
+		if (height + pieceHt >= ROWS) {
+			return -1;
+		}
+
+		for (int c = 0; c < width; c++) {
+			int bit = 1 << (slot + c);
+			for (int h = height + bottom[c]; h < height + pTop[c]; h++) {
+				rows[h] |= bit;
+			}
+			cols[slot + c] |= (1 << (height + pTop[c])) - (1 << (height + bottom[c]));
+			heights[slot + c] = base + SurfaceCache.topOffset(landing, c);
+		}
+
+		// check for full rows - starting at the top so lower rows keep their index
+		int cleared = 0;
+		for (int r = height + pieceHt - 1; r >= height; r--) {
+			if (rows[r] == RowTables.FULL) {
+				cleared++;
+				System.arraycopy(rows, r + 1, rows, r, ROWS - 1 - r);
+				rows[ROWS - 1] = 0;
+
+				int below = (1 << r) - 1;
+				for (int c = 0; c < COLS; c++) {
+					cols[c] = (cols[c] & below) | ((cols[c] >>> 1) & ~below);
+				}
+			}
+		}
+		if (cleared > 0) {
+			for (int c = 0; c < COLS; c++) {
+				heights[c] = 32 - Integer.numberOfLeadingZeros(cols[c]);
+			}
+		}
+		return cleared;
+	}
+}
@@ -0,0 +1,158 @@
+package tetris;
+
+/**
+ * Picks moves by branch and bound. Features are computed for each candidate from cheapest to dearest
+ * (landing height, then holes, then row transitions, column transitions and wells), and after each one
+ * the best score the candidate could still reach is worked out from the weights' signs and the range
+ * every remaining feature can take. As soon as that cannot beat the best move so far, the rest of the
+ * candidate is skipped. Candidates that are not cut are scored exactly as in pickMove(), so the same
+ * move is picked.
+ * 
+ * Keeps scratch boards and counters, so each thread needs its own.
+ */
+public class BoundedMovePicker {
+
+	// features in the order they are computed, cheapest first (FILLED_LINES is always 0)
+	private static final int[] ORDER = { Features.LANDING_HEIGHT, Features.HOLES, Features.ROW_TRANSITIONS,
+			Features.COL_TRANSITIONS, Features.WELL_SUMS };
+
+	// smallest and largest value of each feature on a board after a move (that did not lose)
+	private static final int[] MIN = new int[Features.COUNT];
+	private static final int[] MAX = new int[Features.COUNT];
+
+	static {
+		// every row below the top one has an empty cell, giving at least 2 transitions
+		MIN[Features.ROW_TRANSITIONS] = 2 * (State.ROWS - 1);
+		MAX[Features.ROW_TRANSITIONS] = (State.COLS + 1) * (State.ROWS - 1);
+		// the floor is filled and the top row always empty, giving at least 1 per column
+		MIN[Features.COL_TRANSITIONS] = State.COLS;
+		MAX[Features.COL_TRANSITIONS] = State.COLS * State.ROWS;
+		MAX[Features.HOLES] = State.COLS * (State.ROWS - 1);
+		MAX[Features.WELL_SUMS] = State.COLS * State.ROWS * (State.ROWS + 1) / 2;
+	}
+
+	// same starting score as PlayerSkeleton.pickMove()
+	private static final double NO_SCORE = -1000000;
+
+	private final BitBoard base = new BitBoard();
+	private final BitBoard board = new BitBoard();
+	private final int[] features = new int[Features.COUNT];
+	private final double[] bound = new double[ORDER.length + 1];
+
+	private long candidates;
+	private long pruned;
+	private long featuresComputed;
+	private long featuresSkipped;
+
+	/**
+	 * Description: Gives the chosen move for the piece on the given board
+	 * @param field board before the move (non 0 means filled)
+	 * @param piece
+	 * @param legalMoves
+	 * @param featureWeights weights indexed by feature (see Gene.getFeatureWeights())
+	 * @param evaluator scores a full feature vector (see Gene.getEvaluator())
+	 * @return
+	 */
+	public int pickMove(int[][] field, int piece, int[][] legalMoves, double[] featureWeights,
+			GeneEvaluator evaluator) {
+		base.load(field);
+
+		// bound[k] is the most the features from ORDER[k] on can still add
+		bound[ORDER.length] = 0;
+		for (int k = ORDER.length - 1; k >= 0; k--) {
+			double w = featureWeights[ORDER[k]];
+			bound[k] = bound[k + 1] + (w > 0 ? w * MAX[ORDER[k]] : w * MIN[ORDER[k]]);
+		}
+		// margin so that rounding in the partial sums never cuts a move that would win
+		double margin = 1e-9 * (1 + Math.abs(bound[0]));
+
+		int move = 0;
+		double moveScore = NO_SCORE;
+
+		for (int i = 0; i < legalMoves.length; i++) {
+			candidates++;
+			int orient = legalMoves[i][State.ORIENT];
+			int slot = legalMoves[i][State.SLOT];
+
+			// landing height only needs the board before the move
+			features[Features.FILLED_LINES] = 0;
+			features[Features.LANDING_HEIGHT] = Features.landingHeight(base.height(slot),
+					State.getpHeight()[piece][orient]);
+			double partial = featureWeights[Features.LANDING_HEIGHT] * features[Features.LANDING_HEIGHT];
+			featuresComputed++;
+
+			int k = 1;
+			if (partial + bound[k] + margin > moveScore) {
+				board.copyFrom(base);
+				if (board.place(piece, orient, slot) < 0) {
+					continue;
+				}
+				for (; k < ORDER.length; k++) {
+					if (partial + bound[k] + margin <= moveScore) {
+						break;
+					}
+					int f = ORDER[k];
+					features[f] = compute(f);
+					partial += featureWeights[f] * features[f];
+					featuresComputed++;
+				}
+			}
+
+			if (k < ORDER.length) {
+				pruned++;
+				featuresSkipped += ORDER.length - k;
+				continue;
+			}
+
+			double score = evaluator.score(features);
+			if (score > moveScore) {
+				move = i;
+				moveScore = score;
+			}
+		}
+		return move;
+	}
+
+	private int compute(int feature) {
+		switch (feature) {
+		case Features.HOLES:
+			return TableFeatureEngine.holes(board.getCols());
+		case Features.ROW_TRANSITIONS:
+			return TableFeatureEngine.rowTransitions(board.getRows());
+		case Features.COL_TRANSITIONS:
+			return TableFeatureEngine.colTransitions(board.getCols());
+		default:
+			return TableFeatureEngine.wellSums(board.getCols());
+		}
+	}
+
+	/**
+	 * Description: Gives the number of candidate moves looked at
+	 * @return
+	 */
+	public long getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * Description: Gives the number of candidates cut before all their features were computed
+	 * @return
+	 */
+	public long getPruned() {
+		return pruned;
+	}
+
+	public long getFeaturesComputed() {
+		return featuresComputed;
+	}
+
+	public long getFeaturesSkipped() {
+		return featuresSkipped;
+	}
+
+	@Override
+	public String toString() {
+		return "BoundedMovePicker[candidates=" + candidates + ", pruned=" + pruned + ", featuresComputed="
+				+ featuresComputed + ", featuresSkipped=" + featuresSkipped + "]";
+	}
+}
@@ -0,0 +1,371 @@
+package tetris;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Opt-in trace of move decisions for offline analysis: for a sample of the decisions, the piece, the
+ * feature vector (see Features) of every legal move, the chosen move and its score. Player threads only
+ * add the decision to a lock-free queue; a background thread drains it into chunks and writes them.
+ * When the queue is full, decisions are dropped and counted rather than slowing the players down.
+ *
+ * The file is columnar: each chunk holds the values of one column for all its decisions together, so
+ * that each column compresses well and can be read on its own. Layout (big-endian):
+ *
+ *   header: int MAGIC, int VERSION, int Features.COUNT
+ *   chunks: int raw length, int deflated length, deflated bytes of
+ *           int decisions, int candidates,
+ *           byte[decisions] piece, byte[decisions] candidates, byte[decisions] chosen,
+ *           double[decisions] chosen score,
+ *           byte[candidates] lost (1 if the move loses the game),
+ *           per feature, short[candidates] value (0 for lost moves)
+ *
+ * Usage: DecisionTrace <trace file> prints the mean features of chosen and rejected moves.
+ */
+public class DecisionTrace implements AutoCloseable {
+
+	public static final int MAGIC = 0x54545243; // "TTRC"
+	public static final int VERSION = 1;
+
+	private static final int CHUNK_DECISIONS = 4096;
+	private static final int MAX_QUEUED = 1 << 16;
+
+	/**
+	 * One traced decision
+	 */
+	public static final class Decision {
+		private final int piece;
+		private final int[][] features;
+		private final int chosen;
+		private final double score;
+
+		public Decision(int piece, int[][] features, int chosen, double score) {
+			this.piece = piece;
+			this.features = features;
+			this.chosen = chosen;
+			this.score = score;
+		}
+
+		public int getPiece() {
+			return piece;
+		}
+
+		/**
+		 * Description: Gives the feature vectors of the legal moves, FeatureCache.LOST for a losing one
+		 */
+		public int[][] getFeatures() {
+			return features;
+		}
+
+		public int getChosen() {
+			return chosen;
+		}
+
+		public double getScore() {
+			return score;
+		}
+	}
+
+	/**
+	 * Called for every decision of a trace file
+	 */
+	public interface Visitor {
+		void visit(Decision decision);
+	}
+
+	private final int sampleEvery;
+	private final ConcurrentLinkedQueue<Decision> queue = new ConcurrentLinkedQueue<Decision>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final LongAdder traced = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final DataOutputStream out;
+	private final Thread writer;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private volatile boolean closed;
+	private IOException failure;
+
+	/**
+	 * Constructor for DecisionTrace
+	 * Description: Creates the trace file and starts the writer thread
+	 * @param path
+	 * @param sampleEvery one decision in sampleEvery is traced, on average
+	 * @throws IOException
+	 */
+	public DecisionTrace(Path path, int sampleEvery) throws IOException {
+		this.sampleEvery = sampleEvery;
+		out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(Features.COUNT);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "trace-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Description: Tells whether the coming decision should be traced. Cheap enough to call for every
+	 * decision
+	 * @return
+	 */
+	public boolean sample() {
+		return sampleEvery <= 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+	}
+
+	/**
+	 * Description: Queues a decision for the writer. The feature vectors are kept, not copied, and must
+	 * not be changed afterwards
+	 * @param piece
+	 * @param features
+	 * @param chosen
+	 * @param score
+	 */
+	public void add(int piece, int[][] features, int chosen, double score) {
+		if (closed || queued.incrementAndGet() > MAX_QUEUED) {
+			queued.decrementAndGet();
+			dropped.increment();
+			return;
+		}
+		Decision decision = new Decision(piece, features, chosen, score);
+		queue.offer(decision);
+		// the writer may have made its last pass since closed was read, then it never sees the decision
+		if (closed && queue.remove(decision)) {
+			queued.decrementAndGet();
+			dropped.increment();
+			return;
+		}
+		traced.increment();
+	}
+
+	public long getTraced() {
+		return traced.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Description: Writes every queued decision, stops the writer thread and closes the file
+	 * @throws IOException if writing failed
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		deflater.end();
+		out.close();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DecisionTrace[traced=" + getTraced() + ", dropped=" + getDropped() + "]";
+	}
+
+	private void drain() {
+		Decision[] chunk = new Decision[CHUNK_DECISIONS];
+		int size = 0;
+		try {
+			while (true) {
+				boolean done = closed;
+				Decision d;
+				while (size < chunk.length && (d = queue.poll()) != null) {
+					queued.decrementAndGet();
+					chunk[size++] = d;
+				}
+				if (size == chunk.length || (done && queue.isEmpty())) {
+					if (size > 0) {
+						writeChunk(chunk, size);
+						size = 0;
+					}
+					if (done && queue.isEmpty()) {
+						return;
+					}
+				} else {
+					LockSupport.parkNanos(1000000);
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	private void writeChunk(Decision[] chunk, int size) throws IOException {
+		int candidates = 0;
+		for (int i = 0; i < size; i++) {
+			candidates += chunk[i].features.length;
+		}
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(size * 12 + candidates * (1 + 2 * Features.COUNT));
+		DataOutputStream data = new DataOutputStream(raw);
+		data.writeInt(size);
+		data.writeInt(candidates);
+		for (int i = 0; i < size; i++) {
+			data.writeByte(chunk[i].piece);
+		}
+		for (int i = 0; i < size; i++) {
+			data.writeByte(chunk[i].features.length);
+		}
+		for (int i = 0; i < size; i++) {
+			data.writeByte(chunk[i].chosen);
+		}
+		for (int i = 0; i < size; i++) {
+			data.writeDouble(chunk[i].score);
+		}
+		for (int i = 0; i < size; i++) {
+			for (int[] f : chunk[i].features) {
+				data.writeByte(f == FeatureCache.LOST ? 1 : 0);
+			}
+		}
+		for (int feature = 0; feature < Features.COUNT; feature++) {
+			for (int i = 0; i < size; i++) {
+				for (int[] f : chunk[i].features) {
+					data.writeShort(f == FeatureCache.LOST ? 0 : f[feature]);
+				}
+			}
+		}
+
+		byte[] bytes = raw.toByteArray();
+		deflater.reset();
+		deflater.setInput(bytes);
+		deflater.finish();
+		byte[] deflated = new byte[bytes.length + 64];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == deflated.length) {
+				deflated = Arrays.copyOf(deflated, deflated.length * 2);
+			}
+			length += deflater.deflate(deflated, length, deflated.length - length);
+		}
+		out.writeInt(bytes.length);
+		out.writeInt(length);
+		out.write(deflated, 0, length);
+	}
+
+	/**
+	 * Description: Reads a trace file and gives every decision to the visitor, in the order written
+	 * @param path
+	 * @param visitor
+	 * @throws IOException
+	 */
+	public static void read(Path path, Visitor visitor) throws IOException {
+		try (InputStream file = Files.newInputStream(path)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != Features.COUNT) {
+				throw new IOException(path + " is not a version " + VERSION + " decision trace");
+			}
+			Inflater inflater = new Inflater();
+			try {
+				while (true) {
+					int rawLength;
+					try {
+						rawLength = in.readInt();
+					} catch (EOFException e) {
+						return;
+					}
+					byte[] deflated = new byte[in.readInt()];
+					in.readFully(deflated);
+					byte[] raw = new byte[rawLength];
+					inflater.reset();
+					inflater.setInput(deflated);
+					if (inflater.inflate(raw) != rawLength) {
+						throw new IOException(path + " has a truncated chunk");
+					}
+					readChunk(ByteBuffer.wrap(raw), visitor);
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(path + " has a corrupt chunk", e);
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	private static void readChunk(ByteBuffer chunk, Visitor visitor) {
+		int size = chunk.getInt();
+		int candidates = chunk.getInt();
+		int piecesAt = chunk.position();
+		int countsAt = piecesAt + size;
+		int chosenAt = countsAt + size;
+		int scoresAt = chosenAt + size;
+		int lostAt = scoresAt + 8 * size;
+		int featuresAt = lostAt + candidates;
+
+		int candidate = 0;
+		for (int i = 0; i < size; i++) {
+			int[][] features = new int[chunk.get(countsAt + i)][];
+			for (int m = 0; m < features.length; m++, candidate++) {
+				if (chunk.get(lostAt + candidate) != 0) {
+					features[m] = FeatureCache.LOST;
+					continue;
+				}
+				features[m] = new int[Features.COUNT];
+				for (int f = 0; f < Features.COUNT; f++) {
+					features[m][f] = chunk.getShort(featuresAt + 2 * (f * candidates + candidate));
+				}
+			}
+			visitor.visit(new Decision(chunk.get(piecesAt + i), features, chunk.get(chosenAt + i),
+									   chunk.getDouble(scoresAt + 8 * i)));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: DecisionTrace <trace file>");
+			System.exit(1);
+		}
+		final long[] counts = new long[2];
+		final double[][] sums = new double[2][Features.COUNT];
+		read(Paths.get(args[0]), new Visitor() {
+			@Override
+			public void visit(Decision d) {
+				for (int m = 0; m < d.getFeatures().length; m++) {
+					int[] f = d.getFeatures()[m];
+					if (f == FeatureCache.LOST) {
+						continue;
+					}
+					int kind = m == d.getChosen() ? 0 : 1;
+					counts[kind]++;
+					for (int i = 0; i < Features.COUNT; i++) {
+						sums[kind][i] += f[i];
+					}
+				}
+			}
+		});
+		System.out.println("Decisions: " + counts[0]);
+		for (int i = 0; i < Features.COUNT; i++) {
+			System.out.println(String.format("%-16s chosen %8.3f  rejected %8.3f", Features.name(i),
+											 sums[0][i] / Math.max(1, counts[0]), sums[1][i] / Math.max(1, counts[1])));
+		}
+	}
+}
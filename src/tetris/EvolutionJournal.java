@@ -0,0 +1,328 @@
+package tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of finished games, so that a crash in the middle of a generation only loses the
+ * games being played at the time. Each Result (a Gene's weights, the game's index and seed, lines
+ * cleared, pieces played and wall time) is queued by append() and written by a background thread. The
+ * thread writes everything queued so far and then syncs the file once (group commit), so many evaluator
+ * threads share one sync. flush() waits until everything appended before it is on disk.
+ *
+ * File layout (big-endian): int MAGIC, int VERSION, then records of
+ *
+ *   int payload length, int CRC32 of the payload,
+ *   payload: int game index, long seed, long lines, long pieces, long duration in nanoseconds,
+ *            int number of weights, double[] weights
+ *
+ * A crash can leave a torn record at the end. Reading stops at the first record that is incomplete or
+ * fails its CRC, and opening a journal for writing cuts the file back to the last good record.
+ *
+ * A Result is identified by its Gene's weights and game index, so applying the same Result twice does
+ * not change anything (see GenePool.openJournal()). This lets compact() replace the journal after the
+ * snapshot is written without a window where results could be counted twice.
+ */
+public class EvolutionJournal {
+
+	public static final int MAGIC = 0x544a524e; // "TJRN"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 8;
+	private static final int RECORD_HEADER_BYTES = 8;
+	private static final int MAX_BATCH = 4096; // results written by one group commit at most
+
+	/**
+	 * One finished game of a Gene
+	 */
+	public static final class Result {
+		private final double[] weights;
+		private final int game;
+		private final long seed;
+		private final long lines;
+		private final long pieces;
+		private final long durationNanos;
+
+		/**
+		 * Constructor for Result
+		 * @param weights weights of the Gene
+		 * @param game index of the game among the Gene's games
+		 * @param seed seed of the game, PopulationFile.UNSEEDED for a random one
+		 * @param lines lines cleared
+		 * @param pieces pieces played
+		 * @param durationNanos wall time of the game
+		 */
+		public Result(double[] weights, int game, long seed, long lines, long pieces, long durationNanos) {
+			this.weights = weights.clone();
+			this.game = game;
+			this.seed = seed;
+			this.lines = lines;
+			this.pieces = pieces;
+			this.durationNanos = durationNanos;
+		}
+
+		public double[] getWeights() {
+			return weights.clone();
+		}
+
+		public int getGame() {
+			return game;
+		}
+
+		public long getSeed() {
+			return seed;
+		}
+
+		public long getLines() {
+			return lines;
+		}
+
+		public long getPieces() {
+			return pieces;
+		}
+
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+
+		private int payloadBytes() {
+			return 4 + 8 * 4 + 4 + 8 * weights.length;
+		}
+
+		private void writeTo(ByteBuffer buffer) {
+			int start = buffer.position() + RECORD_HEADER_BYTES;
+			buffer.putInt(payloadBytes()).putInt(0);
+			buffer.putInt(game).putLong(seed).putLong(lines).putLong(pieces).putLong(durationNanos);
+			buffer.putInt(weights.length);
+			for (double w : weights) {
+				buffer.putDouble(w);
+			}
+			buffer.putInt(start - 4, crc(buffer, start, buffer.position() - start));
+		}
+	}
+
+	private final Path path;
+	private final LinkedBlockingQueue<Result> queue = new LinkedBlockingQueue<Result>();
+	private final Thread writer;
+	private FileChannel channel;
+	private long appended;	// results given to append(), guarded by this
+	private long durable;	// results written and synced, guarded by this
+	private IOException failure;	// guarded by this
+	private volatile boolean closed;
+
+	/**
+	 * Constructor for EvolutionJournal
+	 * Description: Opens the journal for appending, creating it if needed, and starts the writer thread.
+	 * Read the results already in it with read() first
+	 * @param path
+	 * @throws IOException
+	 */
+	public EvolutionJournal(Path path) throws IOException {
+		this.path = path;
+		this.channel = open(path, validLength(path));
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "journal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Description: Reads every complete result of a journal, or none if the file does not exist
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<Result> read(Path path) throws IOException {
+		List<Result> results = new ArrayList<Result>();
+		scan(path, results);
+		return results;
+	}
+
+	/**
+	 * Description: Queues a result for the writer thread and returns at once
+	 * @param result
+	 */
+	public void append(Result result) {
+		if (closed) {
+			throw new IllegalStateException("Journal is closed");
+		}
+		synchronized (this) {
+			appended++;
+			queue.add(result);
+		}
+	}
+
+	/**
+	 * Description: Waits until every result appended so far is synced to disk
+	 * @throws IOException if the writer failed
+	 */
+	public synchronized void flush() throws IOException {
+		long target = appended;
+		while (durable < target && failure == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while flushing the journal", e);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Description: Replaces the journal with one holding only the given results, e.g. the games of Genes
+	 * that are not finished once a snapshot holds all the others. The new journal is written under a
+	 * temporary name and renamed over the old one. Results appended while this runs may be lost, so it
+	 * should be called while no games are being played
+	 * @param keep
+	 * @throws IOException
+	 */
+	public void compact(List<Result> keep) throws IOException {
+		flush();
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel out = open(tmp, -1)) {
+			write(out, keep);
+		}
+		synchronized (this) {
+			channel.close();
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel = open(path, validLength(path));
+		}
+	}
+
+	/**
+	 * Description: Writes what is queued, stops the writer thread and closes the file
+	 * @throws IOException if the writer failed
+	 */
+	public void close() throws IOException {
+		flush();
+		closed = true;
+		writer.interrupt();
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			channel.close();
+		}
+	}
+
+	private void writeLoop() {
+		List<Result> batch = new ArrayList<Result>();
+		while (!closed) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			synchronized (this) {
+				try {
+					write(channel, batch);
+					durable += batch.size();
+				} catch (IOException e) {
+					failure = e;
+				}
+				notifyAll();
+			}
+			batch.clear();
+		}
+	}
+
+	private static void write(FileChannel channel, List<Result> results) throws IOException {
+		int bytes = 0;
+		for (Result r : results) {
+			bytes += RECORD_HEADER_BYTES + r.payloadBytes();
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(bytes);
+		for (Result r : results) {
+			r.writeTo(buffer);
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Description: Opens the file for appending, cutting it to length, or writes a new header when
+	 * length is negative
+	 */
+	private static FileChannel open(Path path, long length) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (length < 0) {
+			channel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+			header.flip();
+			channel.write(header, 0);
+			channel.force(false);
+			length = HEADER_BYTES;
+		} else {
+			channel.truncate(length);
+		}
+		channel.position(length);
+		return channel;
+	}
+
+	/**
+	 * Description: Gives the length of the journal up to its last good record, -1 if it does not exist
+	 */
+	private static long validLength(Path path) throws IOException {
+		return scan(path, null);
+	}
+
+	private static long scan(Path path, List<Result> results) throws IOException {
+		if (!Files.exists(path) || Files.size(path) == 0) {
+			return -1;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException(path + " is not a version " + VERSION + " evolution journal");
+		}
+		while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int crc = buffer.getInt();
+			if (length < 0 || length > buffer.remaining() || crc(buffer, buffer.position(), length) != crc) {
+				buffer.position(start);
+				break;
+			}
+			int game = buffer.getInt();
+			long seed = buffer.getLong();
+			long lines = buffer.getLong();
+			long pieces = buffer.getLong();
+			long duration = buffer.getLong();
+			double[] weights = new double[buffer.getInt()];
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] = buffer.getDouble();
+			}
+			if (results != null) {
+				results.add(new Result(weights, game, seed, lines, pieces, duration));
+			}
+		}
+		return buffer.position();
+	}
+
+	private static int crc(ByteBuffer buffer, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), buffer.arrayOffset() + offset, length);
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,233 @@
+package tetris;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of feature vectors (see Features), keyed by the board before a move, the piece and
+ * the move index. Feature vectors do not depend on a Gene's weights, so one cache can be shared by all
+ * the Genes and evaluator threads of a generation: each Gene only applies its own weights to the cached
+ * vector. The cache is split into lock-striped LRU segments so that threads rarely wait on each other.
+ * 
+ * Positions are stored in canonical mirrored form: a board and its left-right mirror image (with the
+ * mirrored piece and move, see MoveTable) share one entry. All features but the landing height are
+ * unchanged by mirroring, and the landing height depends on the move's slot column, so callers must
+ * take it from the move rather than from a cached vector (see PlayerSkeleton.featureVectors()).
+ */
+public class FeatureCache {
+
+	// stored for moves that lose the game (TestState gives a null board)
+	public static final int[] LOST = new int[0];
+
+	private static final int STRIPES = 64;
+
+	private final Segment[] segments = new Segment[STRIPES];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Constructor for FeatureCache
+	 * @param capacity maximum number of feature vectors kept
+	 */
+	public FeatureCache(int capacity) {
+		int perSegment = Math.max(1, capacity / STRIPES);
+		for (int i = 0; i < STRIPES; i++) {
+			segments[i] = new Segment(perSegment);
+		}
+	}
+
+	/**
+	 * Description: Packs the occupancy of a board (State field or TestState board) and its mirror image
+	 * into the form used by keys. The same packed board is shared by the keys of every move from that 
+	 * board
+	 * @param field
+	 * @return
+	 */
+	public static Board packBoard(int[][] field) {
+		int words = (field.length * State.COLS + 63) / 64;
+		long[] packed = new long[words];
+		long[] mirrored = new long[words];
+		int bit = 0;
+		for (int r = 0; r < field.length; r++, bit += State.COLS) {
+			int mask = RowTables.mask(field[r]);
+			int mirror = RowTables.MIRROR[mask];
+			int word = bit >>> 6;
+			int shift = bit & 63;
+			packed[word] |= (long) mask << shift;
+			mirrored[word] |= (long) mirror << shift;
+			if (shift + State.COLS > 64) {
+				packed[word + 1] |= (long) mask >>> (64 - shift);
+				mirrored[word + 1] |= (long) mirror >>> (64 - shift);
+			}
+		}
+		return new Board(packed, mirrored);
+	}
+
+	/**
+	 * Description: Gives the cached feature vector for the move, LOST for a losing move, or null if it
+	 * has not been cached. The landing height of the vector may be that of the mirrored move
+	 * @param board see packBoard()
+	 * @param piece
+	 * @param move
+	 * @return
+	 */
+	public int[] get(Board board, int piece, int move) {
+		Key key = board.key(piece, move);
+		Segment segment = segmentFor(key);
+		int[] features;
+		synchronized (segment) {
+			features = segment.get(key);
+		}
+		if (features == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return features;
+	}
+
+	/**
+	 * Description: Stores the feature vector (or LOST) of the move
+	 * @param board see packBoard()
+	 * @param piece
+	 * @param move
+	 * @param features
+	 */
+	public void put(Board board, int piece, int move, int[] features) {
+		Key key = board.key(piece, move);
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, features);
+		}
+	}
+
+	/**
+	 * Description: Empties the cache and resets the statistics, e.g. at the start of a generation
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		hits.reset();
+		misses.reset();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return "FeatureCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+	}
+
+	private Segment segmentFor(Key key) {
+		return segments[(key.hash ^ (key.hash >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * A packed board together with its mirror image
+	 */
+	public static final class Board {
+		private final long[] packed;
+		private final long[] mirrored;
+		// < 0 when packed is the canonical form, > 0 when mirrored is, 0 for a symmetric board
+		private final int order;
+
+		private Board(long[] packed, long[] mirrored) {
+			this.packed = packed;
+			this.mirrored = mirrored;
+			int order = 0;
+			for (int i = packed.length - 1; i >= 0 && order == 0; i--) {
+				order = Long.compare(packed[i], mirrored[i]);
+			}
+			this.order = order;
+		}
+
+		/**
+		 * Description: Gives the key of the move in canonical mirrored form
+		 */
+		private Key key(int piece, int move) {
+			int mirrorPiece = MoveTable.mirrorPiece(piece);
+			int mirrorMove = MoveTable.mirrorMove(piece, move);
+			if (order > 0 || (order == 0 && (mirrorPiece << 8 | mirrorMove) < (piece << 8 | move))) {
+				return new Key(mirrored, mirrorPiece, mirrorMove);
+			}
+			return new Key(packed, piece, move);
+		}
+	}
+
+	/**
+	 * LRU map of one lock stripe
+	 */
+	private static class Segment extends LinkedHashMap<Key, int[]> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	private static final class Key {
+		private final long[] board;
+		private final int pieceMove;
+		private final int hash;
+
+		Key(long[] board, int piece, int move) {
+			this.board = board;
+			this.pieceMove = piece << 8 | move;
+			long h = pieceMove * 0x9E3779B97F4A7C15L;
+			for (long word : board) {
+				h = (h ^ word) * 0xBF58476D1CE4E5B9L;
+				h ^= h >>> 31;
+			}
+			this.hash = (int) (h ^ (h >>> 32));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return hash == k.hash && pieceMove == k.pieceMove && Arrays.equals(board, k.board);
+		}
+	}
+}
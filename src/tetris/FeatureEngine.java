@@ -0,0 +1,57 @@
+package tetris;
+
+/**
+ * Alternative implementation of the feature vectors of PlayerSkeleton.featureVectors(). An engine
+ * computes the features of all the legal moves of a piece in one call, which lets it lay the work out
+ * however suits it best. Engines keep scratch buffers between calls, so each thread needs its own.
+ * 
+ * The engine is chosen at runtime with the system property tetris.features:
+ * "scalar" (default) uses TestState and the Features functions, "batch" uses BatchFeatureEngine and
+ * "table" uses TableFeatureEngine.
+ */
+public abstract class FeatureEngine {
+
+	public static final String PROPERTY = "tetris.features";
+
+	/**
+	 * Description: Gives the feature vectors of every legal move from the given board, in the same order
+	 * as legalMoves. Moves that lose the game give FeatureCache.LOST
+	 * 
+	 * @param field board before the move (non 0 means filled)
+	 * @param top height of each column
+	 * @param piece
+	 * @param legalMoves
+	 * @return
+	 */
+	public abstract int[][] compute(int[][] field, int[] top, int piece, int[][] legalMoves);
+
+	/**
+	 * Description: Gives the name used to select the engine
+	 * @return
+	 */
+	public abstract String getName();
+
+	/**
+	 * Description: Gives a new engine from its name, or null for "scalar" (the TestState path)
+	 * @param name
+	 * @return
+	 */
+	public static FeatureEngine forName(String name) {
+		if (name == null || name.equals("scalar")) {
+			return null;
+		} else if (name.equals(BatchFeatureEngine.NAME)) {
+			return new BatchFeatureEngine();
+		} else if (name.equals(TableFeatureEngine.NAME)) {
+			return new TableFeatureEngine();
+		}
+		throw new IllegalArgumentException("Unknown feature engine: " + name);
+	}
+
+	/**
+	 * Description: Gives a new engine as selected by the tetris.features system property
+	 * @return
+	 */
+	public static FeatureEngine fromSystemProperty() {
+		return forName(System.getProperty(PROPERTY, "scalar"));
+	}
+}
@@ -0,0 +1,190 @@
+package tetris;
+
+/**
+ * Board features used by the heuristics in PlayerSkeleton. They only depend on the board after a move
+ * and on the move itself, never on a Gene's weights, so they can be computed once and shared by every
+ * Gene that meets the same position. The heuristic classes give these same values.
+ */
+public final class Features {
+
+	// positions of the features in a feature vector - same order as the weights file
+	public static final int FILLED_LINES = 0;
+	public static final int HOLES = 1;
+	public static final int WELL_SUMS = 2;
+	public static final int LANDING_HEIGHT = 3;
+	public static final int ROW_TRANSITIONS = 4;
+	public static final int COL_TRANSITIONS = 5;
+	public static final int COUNT = 6;
+
+	// names of the features, as in the weights file header
+	private static final String[] NAMES = { "FilledLines", "Holes", "WellSums", "LandingHeight",
+											"RowTransitions", "ColTransitions" };
+
+	private Features() {
+	}
+
+	/**
+	 * Description: Gives the name of a feature
+	 */
+	public static String name(int feature) {
+		return NAMES[feature];
+	}
+
+	/**
+	 * Description: Gives the feature vector of a board after a move
+	 * 
+	 * @param board board after the move (and its line clears)
+	 * @param prevColHt height of the move's slot column before the move
+	 * @param placedPieceHt height of the piece in the move's orientation
+	 * @return
+	 */
+	public static int[] compute(int[][] board, int prevColHt, int placedPieceHt) {
+		int[] features = new int[COUNT];
+		
+		// FilledLinesHeuristic reports its own rowsCleared field, which is never assigned, so the
+		// weights were tuned against a constant 0 here. Kept as is so both paths pick the same moves
+		features[FILLED_LINES] = 0;
+		features[HOLES] = holes(board);
+		features[WELL_SUMS] = wellSums(board);
+		features[LANDING_HEIGHT] = landingHeight(prevColHt, placedPieceHt);
+		features[ROW_TRANSITIONS] = rowTransitions(board);
+		features[COL_TRANSITIONS] = colTransitions(board);
+		return features;
+	}
+
+	/**
+	 * Description: Determine height of a given column using the given board
+	 * @param col
+	 * @param board
+	 * @return
+	 */
+	public static int colHeight(int col, int[][] board) {
+		for (int row = board.length - 1; row >= 0; row--) {
+			if (board[row][col] != 0) {
+				return row + 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Description: Number of empty cells below the highest block of their column
+	 * @param board
+	 * @return
+	 */
+	public static int holes(int[][] board) {
+		int count = 0;
+		
+		for (int col = 0; col < board[0].length; col++) {
+			//position of highest block
+			int height = colHeight(col, board);
+			
+			//Increment when an empty space that is below the highest block is found
+			for (int row = 0; row < height; row++) {
+				if (board[row][col] == 0) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Description: Sum over every well cell (empty with both sides filled, walls count as filled) of the
+	 * number of empty cells from it down to the next filled cell of its column
+	 * @param board
+	 * @return
+	 */
+	public static int wellSums(int[][] board) {
+		int rows = board.length;
+		int cols = board[0].length;
+		int wellSum = 0;
+		
+		for (int i = 0; i < cols; i++) {
+			for (int j = rows - 1; j >= 0; j--) {
+				boolean isLeftFilled = i == 0 || board[j][i - 1] != 0;
+				boolean isRightFilled = i == cols - 1 || board[j][i + 1] != 0;
+				
+				//if checked cell is a well cell, count the length of the well below it
+				if (board[j][i] == 0 && isLeftFilled && isRightFilled) {
+					for (int k = j; k >= 0; k--) {
+						if (board[k][i] == 0) {
+							wellSum++;
+						} else {
+							break;
+						}
+					}
+				}
+			}
+		}
+		return wellSum;
+	}
+
+	/**
+	 * Description: Previous height of the move's column + 1/2 of the piece height (integer division,
+	 * as the weights were tuned with it)
+	 * @param prevColHt
+	 * @param placedPieceHt
+	 * @return
+	 */
+	public static int landingHeight(int prevColHt, int placedPieceHt) {
+		return prevColHt + placedPieceHt / 2;
+	}
+
+	/**
+	 * Description: Number of changes between filled and empty cells along each row, walls count as
+	 * filled. The top row is not counted
+	 * @param board
+	 * @return
+	 */
+	public static int rowTransitions(int[][] board) {
+		int transitions = 0;
+		
+		for (int i = 0; i < board.length - 1; i++) {
+			//left border taken to be filled
+			boolean isPrevFilled = true;
+			
+			for (int j = 0; j < board[i].length; j++) {
+				if (board[i][j] == 0 && isPrevFilled) {
+					transitions++;
+					isPrevFilled = false;
+				} else if (board[i][j] != 0 && !isPrevFilled) {
+					transitions++;
+					isPrevFilled = true;
+				}
+			}
+			
+			//right border taken to be filled
+			if (!isPrevFilled) {
+				transitions++;
+			}
+		}
+		return transitions;
+	}
+
+	/**
+	 * Description: Number of changes between filled and empty cells up each column, the floor counts
+	 * as filled
+	 * @param board
+	 * @return
+	 */
+	public static int colTransitions(int[][] board) {
+		int transitions = 0;
+		
+		for (int i = 0; i < board[0].length; i++) {
+			//bottom border taken to be filled
+			boolean isPrevFilled = true;
+			
+			for (int j = 0; j < board.length; j++) {
+				if (board[j][i] == 0 && isPrevFilled) {
+					transitions++;
+					isPrevFilled = false;
+				} else if (board[j][i] != 0 && !isPrevFilled) {
+					transitions++;
+					isPrevFilled = true;
+				}
+			}
+		}
+		return transitions;
+	}
+}
@@ -0,0 +1,195 @@
+package tetris;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scores moves with integer arithmetic only. Weights are quantized once to fixed-point longs (SCALE_BITS
+ * fractional bits) and, as all features are integer counts, a move's score is an exact long dot product.
+ * Ties go to the lowest move index, as in PlayerSkeleton.pickMove(). Moves are picked for one Gene
+ * (pickMove()) or for many Genes at once from the matrices of BatchScorer (bestMoves()).
+ * 
+ * In verify mode every decision is also made with doubles and any move where the two disagree is
+ * reported and counted. Disagreements can only come from weights whose difference is below the
+ * quantization step.
+ */
+public class FixedPointScorer {
+
+	public static final int SCALE_BITS = 20;
+	private static final double SCALE = 1L << SCALE_BITS;
+
+	// same starting score as PlayerSkeleton.pickMove()
+	private static final long NO_SCORE = -1000000L << SCALE_BITS;
+
+	private final boolean verify;
+	private final LongAdder decisions = new LongAdder();
+	private final LongAdder mismatches = new LongAdder();
+
+	/**
+	 * Constructor for FixedPointScorer
+	 * @param verify also score with doubles and report the moves where the choices differ
+	 */
+	public FixedPointScorer(boolean verify) {
+		this.verify = verify;
+	}
+
+	/**
+	 * Description: Quantizes weights indexed by feature (see Gene.getFeatureWeights()), or a weight
+	 * matrix of BatchScorer.weightMatrix() entry by entry
+	 * @param featureWeights
+	 * @return
+	 */
+	public static long[] quantize(double[] featureWeights) {
+		long[] fixed = new long[featureWeights.length];
+		for (int f = 0; f < featureWeights.length; f++) {
+			fixed[f] = Math.round(featureWeights[f] * SCALE);
+		}
+		return fixed;
+	}
+
+	/**
+	 * Description: Gives the fixed-point score of a feature vector
+	 * @param features
+	 * @param weights see quantize()
+	 * @return
+	 */
+	public static long score(int[] features, long[] weights) {
+		long score = 0;
+		for (int f = 0; f < Features.COUNT; f++) {
+			score += weights[f] * features[f];
+		}
+		return score;
+	}
+
+	/**
+	 * Description: Gives the best move from the feature vectors of the legal moves (see 
+	 * PlayerSkeleton.featureVectors())
+	 * @param features
+	 * @param weights quantized weights (see quantize()), computed once per Gene
+	 * @param featureWeights the same weights unquantized, only read in verify mode
+	 * @return
+	 */
+	public int pickMove(int[][] features, long[] weights, double[] featureWeights) {
+		int move = 0;
+		long moveScore = NO_SCORE;
+
+		for (int i = 0; i < features.length; i++) {
+			if (features[i] == FeatureCache.LOST) {
+				continue;
+			}
+			long score = score(features[i], weights);
+			if (score > moveScore) {
+				move = i;
+				moveScore = score;
+			}
+		}
+
+		decisions.increment();
+		if (verify) {
+			check(features, featureWeights, move);
+		}
+		return move;
+	}
+
+	/**
+	 * Description: Gives the best move of every Gene, as BatchScorer.bestMoves() does but with integer 
+	 * scores. Ties go to the lowest move index and move 0 is given when every move loses
+	 * @param features see BatchScorer.featureMatrix()
+	 * @param lost
+	 * @param moves
+	 * @param weights quantized weight matrix (quantize() of a BatchScorer.weightMatrix()), computed once
+	 * per group of Genes
+	 * @param doubleWeights the same weight matrix unquantized, only read in verify mode
+	 * @param genes
+	 * @return
+	 */
+	public int[] bestMoves(int[] features, boolean[] lost, int moves, long[] weights, double[] doubleWeights,
+			int genes) {
+		int[] best = new int[genes];
+		long[] bestScore = new long[genes];
+		long[] score = new long[genes];
+		Arrays.fill(bestScore, NO_SCORE);
+
+		for (int m = 0; m < moves; m++) {
+			if (lost[m]) {
+				continue;
+			}
+			Arrays.fill(score, 0);
+			int base = m * Features.COUNT;
+			for (int f = 0; f < Features.COUNT; f++) {
+				int value = features[base + f];
+				if (value == 0) {
+					continue;
+				}
+				int row = f * genes;
+				for (int g = 0; g < genes; g++) {
+					score[g] += weights[row + g] * value;
+				}
+			}
+			for (int g = 0; g < genes; g++) {
+				if (score[g] > bestScore[g]) {
+					bestScore[g] = score[g];
+					best[g] = m;
+				}
+			}
+		}
+
+		decisions.add(genes);
+		if (verify) {
+			int[] doubleBest = BatchScorer.bestMoves(features, lost, moves, doubleWeights, genes);
+			for (int g = 0; g < genes; g++) {
+				if (doubleBest[g] != best[g]) {
+					mismatches.increment();
+					System.out.println("Fixed-point picked move " + best[g] + " but double picked move "
+							+ doubleBest[g] + " for Gene " + g + " of the batch");
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Description: Makes the same decision with doubles and reports it if it differs
+	 */
+	private void check(int[][] features, double[] featureWeights, int fixedMove) {
+		int move = 0;
+		double moveScore = -1000000;
+		for (int i = 0; i < features.length; i++) {
+			if (features[i] == FeatureCache.LOST) {
+				continue;
+			}
+			double score = 0;
+			for (int f = 0; f < Features.COUNT; f++) {
+				score += featureWeights[f] * features[i][f];
+			}
+			if (score > moveScore) {
+				move = i;
+				moveScore = score;
+			}
+		}
+
+		if (move != fixedMove) {
+			mismatches.increment();
+			System.out.println("Fixed-point picked move " + fixedMove + " but double picked move " + move
+					+ " (double score " + moveScore + ")");
+		}
+	}
+
+	public boolean isVerifying() {
+		return verify;
+	}
+
+	public long getDecisions() {
+		return decisions.sum();
+	}
+
+	public long getMismatches() {
+		return mismatches.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "FixedPointScorer[decisions=" + getDecisions() + (verify ? ", mismatches=" + getMismatches() : "")
+				+ "]";
+	}
+}
@@ -0,0 +1,178 @@
+package tetris;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot of a game in progress, so that a long game can be stopped and carried on in another JVM. It
+ * holds the State (see State.writeSnapshot(): board, turn, rows cleared and next piece, the tops are
+ * rebuilt from the board), the seed of its SeededPieceSource and the weights of the Gene playing it.
+ * Pieces of a SeededPieceSource only depend on the seed and the turn, so the seed and turn are the
+ * whole random state and a resumed game ends exactly as the original would have. Games with random
+ * pieces can be checkpointed too, but their pieces after the checkpoint will differ.
+ *
+ * File layout (big-endian): int MAGIC, int VERSION, long seed (PopulationFile.UNSEEDED if none), int
+ * number of weights, double[] weights, State snapshot, int CRC32 of everything before it.
+ *
+ * Usage: GameCheckpoint <checkpoint file> <seed> [pieces between checkpoints] plays the default Gene of
+ * PlayerSkeleton on the seeded game, carrying on from the checkpoint file if there is one. 0 pieces
+ * between checkpoints only saves one when the game ends.
+ */
+public class GameCheckpoint {
+
+	public static final int MAGIC = 0x54434b50; // "TCKP"
+	public static final int VERSION = 1;
+
+	private final long seed;
+	private final double[] weights;
+	private final State state;
+
+	private GameCheckpoint(long seed, double[] weights, State state) {
+		this.seed = seed;
+		this.weights = weights;
+		this.state = state;
+	}
+
+	/**
+	 * Description: Writes a checkpoint of the game. The file is written under a temporary name, synced
+	 * and renamed, so a crash while saving leaves the previous checkpoint in place
+	 * @param path
+	 * @param s
+	 * @param weights weights of the Gene playing the game
+	 * @throws IOException
+	 */
+	public static void save(Path path, State s, double[] weights) throws IOException {
+		PieceSource pieces = s.getPieceSource();
+		long seed = pieces instanceof SeededPieceSource ? ((SeededPieceSource) pieces).getSeed()
+				: PopulationFile.UNSEEDED;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + State.SNAPSHOT_BYTES);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(seed);
+		out.writeInt(weights.length);
+		for (double w : weights) {
+			out.writeDouble(w);
+		}
+		s.writeSnapshot(out);
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeInt((int) crc.getValue());
+
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Description: Reads a checkpoint. Its State continues the game with a SeededPieceSource of the
+	 * saved seed, or random pieces if the game was not seeded
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static GameCheckpoint load(Path path) throws IOException {
+		byte[] bytes = Files.readAllBytes(path);
+		if (bytes.length < 4) {
+			throw new IOException(path + " is not a game checkpoint");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+			throw new IOException(path + " is corrupt");
+		}
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException(path + " is not a version " + VERSION + " game checkpoint");
+		}
+		long seed = in.readLong();
+		double[] weights = new double[in.readInt()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = in.readDouble();
+		}
+		State s = seed == PopulationFile.UNSEEDED ? new State() : new State(new SeededPieceSource(seed));
+		s.readSnapshot(in);
+		return new GameCheckpoint(seed, weights, s);
+	}
+
+	/**
+	 * Description: Gives the seed of the game, PopulationFile.UNSEEDED if its pieces were random
+	 * @return
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Description: Gives the weights of the Gene that played the game
+	 * @return
+	 */
+	public double[] getWeights() {
+		return weights.clone();
+	}
+
+	/**
+	 * Description: Gives the State to carry on playing from
+	 * @return
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Description: Checks that the game was played by a Gene with these weights
+	 * @param weights
+	 * @throws IOException if it was not
+	 */
+	public void checkWeights(double[] weights) throws IOException {
+		if (!Arrays.equals(this.weights, weights)) {
+			throw new IOException("Checkpoint was played with weights " + Arrays.toString(this.weights)
+								  + ", not " + Arrays.toString(weights));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: GameCheckpoint <checkpoint file> <seed> [pieces between checkpoints]");
+			System.exit(1);
+		}
+		Path path = Paths.get(args[0]);
+		long seed = Long.parseLong(args[1]);
+		int every = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+		PlayerSkeleton p = new PlayerSkeleton();
+		p.setBoundedPicker(new BoundedMovePicker());
+		State s;
+		if (Files.exists(path)) {
+			GameCheckpoint checkpoint = load(path);
+			checkpoint.checkWeights(p.getGene().getWeightArray());
+			s = checkpoint.getState();
+			System.out.println("Resuming at turn " + s.getTurnNumber() + ", " + s.getRowsCleared() + " rows");
+		} else {
+			s = new State(new SeededPieceSource(seed));
+		}
+		int rows = p.playGame(p.getGene(), s, path, every);
+		System.out.println("You have completed " + rows + " rows in " + s.getTurnNumber() + " turns.");
+	}
+}
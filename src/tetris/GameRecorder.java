@@ -0,0 +1,190 @@
+package tetris;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Records a game turn by turn into a compact file that GameReplayer can play back exactly. Each turn
+ * takes 9 bits: the piece (3 bits) and the index of the move in State.legalMoves() (6 bits). When the
+ * game is seeded the pieces follow from the seed and only the 6 move bits are kept.
+ *
+ * Turns are grouped into blocks of blockTurns turns. A block starts with a snapshot of the State before
+ * its first turn (see State.writeSnapshot()), so a replay can start from any block, and is deflated on
+ * its own as soon as it is full. File layout (big-endian):
+ *
+ *   header: int MAGIC, int VERSION, long seed (PopulationFile.UNSEEDED if none), int blockTurns
+ *   blocks: int raw length, int deflated length, deflated bytes of
+ *           (snapshot, int turns, packed turn bits)
+ *   index:  per block, long file offset, int first turn, int turns
+ *   footer: long index offset, int blocks, int MAGIC
+ *
+ * Usage: GameRecorder <output file> <seed> [max pieces] plays the default Gene of PlayerSkeleton.
+ */
+public class GameRecorder implements AutoCloseable {
+
+	public static final int MAGIC = 0x54524543; // "TREC"
+	public static final int VERSION = 1;
+	public static final int DEFAULT_BLOCK_TURNS = 1 << 16;
+
+	static final int PIECE_BITS = 3;
+	static final int MOVE_BITS = 6;
+
+	private final DataOutputStream out;
+	private final long seed;
+	private final int blockTurns;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+	private final DataOutputStream indexOut = new DataOutputStream(index);
+	private long offset;
+	private int blocks;
+
+	// block being filled
+	private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream bits = new ByteArrayOutputStream();
+	private int blockFirstTurn;
+	private int blockTurnCount;
+	private long bitBuffer;
+	private int bitCount;
+
+	/**
+	 * Constructor for GameRecorder
+	 * @param out where the recording goes
+	 * @param seed seed of the game's SeededPieceSource, or PopulationFile.UNSEEDED to record the pieces
+	 * @param blockTurns turns between two snapshots
+	 * @throws IOException
+	 */
+	public GameRecorder(OutputStream out, long seed, int blockTurns) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		this.seed = seed;
+		this.blockTurns = blockTurns;
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+		this.out.writeLong(seed);
+		this.out.writeInt(blockTurns);
+		offset = 4 + 4 + 8 + 4;
+	}
+
+	/**
+	 * Constructor for GameRecorder
+	 * @param path
+	 * @param seed
+	 * @throws IOException
+	 */
+	public GameRecorder(Path path, long seed) throws IOException {
+		this(Files.newOutputStream(path), seed, DEFAULT_BLOCK_TURNS);
+	}
+
+	/**
+	 * Description: Records the move about to be made on the State. Call it before State.makeMove()
+	 * @param s
+	 * @param move index in s.legalMoves()
+	 * @throws IOException
+	 */
+	public void record(State s, int move) throws IOException {
+		if (blockTurnCount == 0) {
+			blockFirstTurn = s.getTurnNumber();
+			s.writeSnapshot(new DataOutputStream(block));
+		}
+		if (seed == PopulationFile.UNSEEDED) {
+			write(s.getNextPiece(), PIECE_BITS);
+		}
+		write(move, MOVE_BITS);
+		if (++blockTurnCount == blockTurns) {
+			endBlock();
+		}
+	}
+
+	private void write(int value, int count) {
+		bitBuffer |= (long) value << bitCount;
+		bitCount += count;
+		while (bitCount >= 8) {
+			bits.write((int) bitBuffer);
+			bitBuffer >>>= 8;
+			bitCount -= 8;
+		}
+	}
+
+	private void endBlock() throws IOException {
+		if (bitCount > 0) {
+			bits.write((int) bitBuffer);
+		}
+		DataOutputStream blockOut = new DataOutputStream(block);
+		blockOut.writeInt(blockTurnCount);
+		bits.writeTo(blockOut);
+
+		byte[] raw = block.toByteArray();
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		byte[] deflated = new byte[raw.length + 64];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == deflated.length) {
+				deflated = Arrays.copyOf(deflated, deflated.length * 2);
+			}
+			length += deflater.deflate(deflated, length, deflated.length - length);
+		}
+
+		indexOut.writeLong(offset);
+		indexOut.writeInt(blockFirstTurn);
+		indexOut.writeInt(blockTurnCount);
+		out.writeInt(raw.length);
+		out.writeInt(length);
+		out.write(deflated, 0, length);
+		offset += 8 + length;
+		blocks++;
+
+		block.reset();
+		bits.reset();
+		bitBuffer = 0;
+		bitCount = 0;
+		blockTurnCount = 0;
+	}
+
+	/**
+	 * Description: Writes the last block and the index, and closes the output
+	 */
+	@Override
+	public void close() throws IOException {
+		if (blockTurnCount > 0) {
+			endBlock();
+		}
+		long indexOffset = offset;
+		index.writeTo(out);
+		out.writeLong(indexOffset);
+		out.writeInt(blocks);
+		out.writeInt(MAGIC);
+		out.close();
+		deflater.end();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: GameRecorder <output file> <seed> [max pieces]");
+			System.exit(1);
+		}
+		long seed = Long.parseLong(args[1]);
+		int maxPieces = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+
+		PlayerSkeleton p = new PlayerSkeleton();
+		p.setBoundedPicker(new BoundedMovePicker());
+		State s = new State(new SeededPieceSource(seed));
+		try (GameRecorder recorder = new GameRecorder(Paths.get(args[0]), seed)) {
+			while (!s.hasLost() && s.getTurnNumber() < maxPieces) {
+				int move = p.pickMove(s, s.legalMoves(), p.getGene());
+				recorder.record(s, move);
+				s.makeMove(move);
+			}
+		}
+		System.out.println("Recorded " + s.getTurnNumber() + " turns, " + s.getRowsCleared() + " rows, "
+						   + Files.size(Paths.get(args[0])) + " bytes");
+	}
+}
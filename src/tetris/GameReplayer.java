@@ -0,0 +1,264 @@
+package tetris;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Plays back a recording of GameRecorder. The whole game, or any part of it, is rebuilt by making the
+ * recorded moves on a State, starting from the snapshot of the block the part begins in. Seeded games
+ * take their pieces from a SeededPieceSource, the others from the recording.
+ *
+ * Keeps the last decoded block, so it is not thread-safe.
+ *
+ * Usage: GameReplayer <recording> [turn] replays the game, and prints the board at the given turn.
+ */
+public class GameReplayer {
+
+	/**
+	 * Called for every replayed turn, before its move is made
+	 */
+	public interface Visitor {
+		void visit(State s, int move) throws Exception;
+	}
+
+	private final ByteBuffer file;
+	private final long seed;
+	private final long[] blockOffsets;
+	private final int[] blockFirstTurns;
+	private final int[] blockTurns;
+
+	// the last decoded block
+	private int decodedBlock = -1;
+	private byte[] snapshot;
+	private int[] pieces;
+	private int[] moves;
+
+	private GameReplayer(ByteBuffer file) throws IOException {
+		this.file = file;
+		if (file.getInt(0) != GameRecorder.MAGIC || file.getInt(4) != GameRecorder.VERSION
+				|| file.getInt(file.capacity() - 4) != GameRecorder.MAGIC) {
+			throw new IOException("Not a complete version " + GameRecorder.VERSION + " game recording");
+		}
+		seed = file.getLong(8);
+		int blocks = file.getInt(file.capacity() - 8);
+		long indexOffset = file.getLong(file.capacity() - 16);
+		blockOffsets = new long[blocks];
+		blockFirstTurns = new int[blocks];
+		blockTurns = new int[blocks];
+		for (int b = 0; b < blocks; b++) {
+			int at = (int) indexOffset + 16 * b;
+			blockOffsets[b] = file.getLong(at);
+			blockFirstTurns[b] = file.getInt(at + 8);
+			blockTurns[b] = file.getInt(at + 12);
+		}
+	}
+
+	/**
+	 * Description: Maps a recording read-only
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static GameReplayer open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new GameReplayer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Description: Gives the seed of the game, PopulationFile.UNSEEDED if its pieces were recorded
+	 * @return
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Description: Gives the turn number the recording starts at
+	 * @return
+	 */
+	public int getFirstTurn() {
+		return blockFirstTurns.length == 0 ? 0 : blockFirstTurns[0];
+	}
+
+	/**
+	 * Description: Gives the turn number after the last recorded move
+	 * @return
+	 */
+	public int getLastTurn() {
+		int b = blockFirstTurns.length - 1;
+		return b < 0 ? 0 : blockFirstTurns[b] + blockTurns[b];
+	}
+
+	/**
+	 * Description: Gives the piece of a recorded turn
+	 * @param turn
+	 * @return
+	 * @throws IOException
+	 */
+	public int pieceAt(int turn) throws IOException {
+		int b = decode(turn);
+		return pieces[turn - blockFirstTurns[b]];
+	}
+
+	/**
+	 * Description: Gives the move (index in State.legalMoves()) of a recorded turn
+	 * @param turn
+	 * @return
+	 * @throws IOException
+	 */
+	public int moveAt(int turn) throws IOException {
+		int b = decode(turn);
+		return moves[turn - blockFirstTurns[b]];
+	}
+
+	/**
+	 * Description: Rebuilds the State of the game when the given number of turns had been played, 
+	 * starting from the nearest snapshot
+	 * @param turn between getFirstTurn() and getLastTurn()
+	 * @return
+	 * @throws Exception
+	 */
+	public State stateAt(int turn) throws Exception {
+		int b = decode(Math.min(turn, getLastTurn() - 1));
+		State s = seed == PopulationFile.UNSEEDED ? new State() : new State(new SeededPieceSource(seed));
+		s.readSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot)));
+		replay(s, turn, null);
+		return s;
+	}
+
+	/**
+	 * Description: Replays the whole game and gives its final State
+	 * @return
+	 * @throws Exception
+	 */
+	public State replay() throws Exception {
+		return replay(null);
+	}
+
+	/**
+	 * Description: Replays the whole game, calling the visitor before each move, and gives the final
+	 * State
+	 * @param visitor may be null
+	 * @return
+	 * @throws Exception
+	 */
+	public State replay(Visitor visitor) throws Exception {
+		State s = stateAt(getFirstTurn());
+		replay(s, getLastTurn(), visitor);
+		return s;
+	}
+
+	/**
+	 * Description: Makes the recorded moves on the State until the given number of turns is played
+	 */
+	private void replay(State s, int turn, Visitor visitor) throws Exception {
+		while (s.getTurnNumber() < turn && !s.hasLost()) {
+			int t = s.getTurnNumber();
+			int b = decode(t);
+			int i = t - blockFirstTurns[b];
+			if (seed == PopulationFile.UNSEEDED) {
+				s.setNextPiece(pieces[i]);
+			}
+			if (visitor != null) {
+				visitor.visit(s, moves[i]);
+			}
+			s.makeMove(moves[i]);
+		}
+	}
+
+	/**
+	 * Description: Decodes the block holding the turn, unless it is the last one decoded
+	 * @return the block
+	 */
+	private int decode(int turn) throws IOException {
+		if (decodedBlock >= 0 && turn >= blockFirstTurns[decodedBlock]
+				&& turn < blockFirstTurns[decodedBlock] + blockTurns[decodedBlock]) {
+			return decodedBlock;
+		}
+		int lo = 0;
+		int hi = blockFirstTurns.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (blockFirstTurns[mid] <= turn) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (hi < 0 || turn < blockFirstTurns[lo] || turn >= blockFirstTurns[lo] + blockTurns[lo]) {
+			throw new IllegalArgumentException("Turn " + turn + " is not in the recording");
+		}
+
+		int at = (int) blockOffsets[lo];
+		byte[] raw = new byte[file.getInt(at)];
+		byte[] deflated = new byte[file.getInt(at + 4)];
+		ByteBuffer view = file.duplicate();
+		view.position(at + 8);
+		view.get(deflated);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(deflated);
+			if (inflater.inflate(raw) != raw.length) {
+				throw new IOException("Block " + lo + " is truncated");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Block " + lo + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+
+		ByteBuffer block = ByteBuffer.wrap(raw);
+		snapshot = new byte[State.SNAPSHOT_BYTES];
+		block.get(snapshot);
+		int turns = block.getInt();
+		pieces = new int[turns];
+		moves = new int[turns];
+		long bitBuffer = 0;
+		int bitCount = 0;
+		boolean seeded = seed != PopulationFile.UNSEEDED;
+		for (int i = 0; i < turns; i++) {
+			while (bitCount < GameRecorder.PIECE_BITS + GameRecorder.MOVE_BITS && block.hasRemaining()) {
+				bitBuffer |= (long) (block.get() & 0xff) << bitCount;
+				bitCount += 8;
+			}
+			if (!seeded) {
+				pieces[i] = (int) bitBuffer & ((1 << GameRecorder.PIECE_BITS) - 1);
+				bitBuffer >>>= GameRecorder.PIECE_BITS;
+				bitCount -= GameRecorder.PIECE_BITS;
+			}
+			moves[i] = (int) bitBuffer & ((1 << GameRecorder.MOVE_BITS) - 1);
+			bitBuffer >>>= GameRecorder.MOVE_BITS;
+			bitCount -= GameRecorder.MOVE_BITS;
+		}
+		decodedBlock = lo;
+		return lo;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: GameReplayer <recording> [turn]");
+			System.exit(1);
+		}
+		GameReplayer replayer = open(Paths.get(args[0]));
+		long start = System.nanoTime();
+		State s = replayer.replay();
+		long nanos = System.nanoTime() - start;
+		System.out.println("Replayed " + s.getTurnNumber() + " turns, " + s.getRowsCleared() + " rows"
+						   + (s.hasLost() ? ", lost" : "") + " in " + nanos / 1000000 + " ms ("
+						   + (long) (s.getTurnNumber() * 1e9 / Math.max(1, nanos)) + " turns/s)");
+		if (args.length > 1) {
+			State at = replayer.stateAt(Integer.parseInt(args[1]));
+			System.out.println("Turn " + at.getTurnNumber() + ", " + at.getRowsCleared() + " rows");
+			PlayerSkeleton.printBoard(at.getField());
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package tetris;
+
+/**
+ * Scores feature vectors (see Features) for one Gene, specialized for that Gene's heuristics and
+ * weights. Weights are unboxed into final fields once, so scoring a move does no list lookups, no
+ * unboxing and no virtual getValue() calls. Genes made of the six features in weights-file order (every
+ * Gene of the GenePool and the default player) get a straight-line evaluator whose class is the only one
+ * seen at the call site, so the JIT inlines score() into the move loop. The weights are still loaded
+ * from the fields on each call: HotSpot does not treat instance final fields as constants, so they are
+ * not folded into the code. Gene.getEvaluator() builds one evaluator per Gene and keeps it.
+ * 
+ * Scores are exactly those of Gene.evaluateFeatures(): terms are added in the Gene's heuristic order.
+ */
+public abstract class GeneEvaluator {
+
+	/**
+	 * Description: Gives the score of a move from its feature vector
+	 * @param features
+	 * @return
+	 */
+	public abstract double score(int[] features);
+
+	/**
+	 * Description: Builds the evaluator for a Gene whose i-th heuristic is feature featureIndex[i] with
+	 * weight weights[i]
+	 * @param featureIndex
+	 * @param weights
+	 * @return
+	 */
+	public static GeneEvaluator of(int[] featureIndex, double[] weights) {
+		boolean canonical = featureIndex.length == Features.COUNT;
+		for (int i = 0; canonical && i < featureIndex.length; i++) {
+			canonical = featureIndex[i] == i;
+		}
+		if (canonical) {
+			return new Canonical(weights);
+		}
+		return new Indexed(featureIndex, weights);
+	}
+
+	/**
+	 * The six features in weights-file order
+	 */
+	private static final class Canonical extends GeneEvaluator {
+		private final double filledLines;
+		private final double holes;
+		private final double wellSums;
+		private final double landingHeight;
+		private final double rowTransitions;
+		private final double colTransitions;
+
+		Canonical(double[] weights) {
+			filledLines = weights[Features.FILLED_LINES];
+			holes = weights[Features.HOLES];
+			wellSums = weights[Features.WELL_SUMS];
+			landingHeight = weights[Features.LANDING_HEIGHT];
+			rowTransitions = weights[Features.ROW_TRANSITIONS];
+			colTransitions = weights[Features.COL_TRANSITIONS];
+		}
+
+		@Override
+		public double score(int[] features) {
+			double score = 0;
+			score += filledLines * features[Features.FILLED_LINES];
+			score += holes * features[Features.HOLES];
+			score += wellSums * features[Features.WELL_SUMS];
+			score += landingHeight * features[Features.LANDING_HEIGHT];
+			score += rowTransitions * features[Features.ROW_TRANSITIONS];
+			score += colTransitions * features[Features.COL_TRANSITIONS];
+			return score;
+		}
+	}
+
+	/**
+	 * Any other set of features, as unboxed arrays
+	 */
+	private static final class Indexed extends GeneEvaluator {
+		private final int[] featureIndex;
+		private final double[] weights;
+
+		Indexed(int[] featureIndex, double[] weights) {
+			this.featureIndex = featureIndex.clone();
+			this.weights = weights.clone();
+		}
+
+		@Override
+		public double score(int[] features) {
+			double score = 0;
+			for (int i = 0; i < weights.length; i++) {
+				score += weights[i] * features[featureIndex[i]];
+			}
+			return score;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package tetris;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed tables over the legal moves of each piece.
+ * 
+ * No two legal moves of a piece place the same cells (same columns, same cell heights relative to the
+ * piece's lowest cell), which is checked when the class is loaded: the search never evaluates the same
+ * board twice, so it has no duplicate moves to skip.
+ * 
+ * Mirrored moves: the piece set is closed under left-right mirroring (L/J and S/Z swap, the others map
+ * to themselves), so every move has a mirror image move of the mirror piece.
+ */
+public final class MoveTable {
+
+	// mirror image piece [piece] and move [piece][move] (a move of the mirror piece)
+	private static final int[] MIRROR_PIECE = new int[State.N_PIECES];
+	private static final int[][] MIRROR_MOVE = new int[State.N_PIECES][];
+
+	static {
+		for (int piece = 0; piece < State.N_PIECES; piece++) {
+			int[][] moves = legalMoves(piece);
+			long[] footprints = new long[moves.length];
+			for (int m = 0; m < moves.length; m++) {
+				footprints[m] = footprint(piece, moves[m][State.ORIENT], moves[m][State.SLOT]);
+				for (int k = 0; k < m; k++) {
+					if (footprints[k] == footprints[m]) {
+						throw new IllegalStateException("Moves " + k + " and " + m + " of piece " + piece
+														+ " place the same cells");
+					}
+				}
+			}
+		}
+
+		for (int piece = 0; piece < State.N_PIECES; piece++) {
+			int[][] moves = legalMoves(piece);
+			MIRROR_MOVE[piece] = new int[moves.length];
+			for (int m = 0; m < moves.length; m++) {
+				int orient = moves[m][State.ORIENT];
+				int[] mirror = mirror(piece, orient);
+				MIRROR_PIECE[piece] = mirror[0];
+				int slot = State.COLS - State.getpWidth()[piece][orient] - moves[m][State.SLOT];
+				MIRROR_MOVE[piece][m] = moveIndex(mirror[0], mirror[1], slot);
+			}
+		}
+	}
+
+	private MoveTable() {
+	}
+
+	/**
+	 * Description: Gives the mirror image of the piece
+	 * @param piece
+	 * @return
+	 */
+	public static int mirrorPiece(int piece) {
+		return MIRROR_PIECE[piece];
+	}
+
+	/**
+	 * Description: Gives the move of mirrorPiece(piece) that is the mirror image of the given move
+	 * @param piece
+	 * @param move
+	 * @return
+	 */
+	public static int mirrorMove(int piece, int move) {
+		return MIRROR_MOVE[piece][move];
+	}
+
+	/**
+	 * Description: Finds the piece and orientation whose shape is the mirror image of the given one
+	 */
+	private static int[] mirror(int piece, int orient) {
+		int[] bottom = reverse(State.getpBottom()[piece][orient]);
+		int[] top = reverse(State.getpTop()[piece][orient]);
+		for (int p = 0; p < State.N_PIECES; p++) {
+			for (int o = 0; o < State.getpOrients()[p]; o++) {
+				if (Arrays.equals(bottom, State.getpBottom()[p][o]) && Arrays.equals(top, State.getpTop()[p][o])) {
+					return new int[] { p, o };
+				}
+			}
+		}
+		throw new IllegalStateException("No mirror image for piece " + piece + " orientation " + orient);
+	}
+
+	private static int[] reverse(int[] a) {
+		int[] r = new int[a.length];
+		for (int i = 0; i < a.length; i++) {
+			r[i] = a[a.length - 1 - i];
+		}
+		return r;
+	}
+
+	/**
+	 * Description: Index of a move in the legal moves of the piece
+	 */
+	private static int moveIndex(int piece, int orient, int slot) {
+		int index = slot;
+		for (int o = 0; o < orient; o++) {
+			index += State.COLS + 1 - State.getpWidth()[piece][o];
+		}
+		return index;
+	}
+
+	/**
+	 * Description: Packs the cells a move places: for each column, its bottom and top relative to the
+	 * piece's lowest cell
+	 */
+	private static long footprint(int piece, int orient, int slot) {
+		int[] bottom = State.getpBottom()[piece][orient];
+		int[] top = State.getpTop()[piece][orient];
+		long footprint = slot;
+		for (int c = 0; c < State.getpWidth()[piece][orient]; c++) {
+			footprint = footprint << 10 | bottom[c] << 5 | top[c];
+		}
+		return footprint << 3 | State.getpWidth()[piece][orient];
+	}
+
+	/**
+	 * Description: Legal moves of a piece in the same order as State.legalMoves()
+	 */
+	private static int[][] legalMoves(int piece) {
+		int[][] moves = new int[0][];
+		for (int orient = 0; orient < State.getpOrients()[piece]; orient++) {
+			for (int slot = 0; slot < State.COLS + 1 - State.getpWidth()[piece][orient]; slot++) {
+				moves = Arrays.copyOf(moves, moves.length + 1);
+				moves[moves.length - 1] = new int[] { orient, slot };
+			}
+		}
+		return moves;
+	}
+}
@@ -0,0 +1,193 @@
+package tetris;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Pre-generated piece sequences of seeded games, packed 3 bits per piece and memory-mapped read-only.
+ * Game g of a corpus holds the pieces SeededPieceSource(firstSeed + g) deals, so a corpus game is the
+ * same game as the seeded one: the corpus only saves generating the pieces, and turns past the end of
+ * the corpus carry on with the seed. All threads and processes that map the file share one page-cached
+ * copy, and reading a piece does not copy or allocate.
+ *
+ * File layout: int MAGIC, int VERSION, long first seed, int games, int pieces per game (big-endian),
+ * then the pieces of game 0, game 1, ... as one bit stream, 3 bits per piece, lowest bits first.
+ *
+ * Usage: PieceCorpus <output file> <games> <pieces per game> [first seed] writes a corpus.
+ */
+public class PieceCorpus {
+
+	public static final int MAGIC = 0x54435250; // "TCRP"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+	private static final int BITS = 3;
+	private static final int REGION_SHIFT = 30; // files are mapped in regions of 1 GB
+
+	private final long firstSeed;
+	private final int games;
+	private final int piecesPerGame;
+	private final MappedByteBuffer[] regions;
+
+	private PieceCorpus(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		channel.read(header, 0);
+		header.flip();
+		if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException("Not a version " + VERSION + " piece corpus");
+		}
+		firstSeed = header.getLong();
+		games = header.getInt();
+		piecesPerGame = header.getInt();
+		long length = HEADER_BYTES + dataBytes(games, piecesPerGame);
+		if (channel.size() != length) {
+			throw new IOException("Piece corpus is truncated");
+		}
+
+		// each region overlaps the next by a byte, so a piece never straddles two regions
+		long data = length - HEADER_BYTES;
+		regions = new MappedByteBuffer[(int) ((data + (1L << REGION_SHIFT) - 1) >>> REGION_SHIFT)];
+		for (int r = 0; r < regions.length; r++) {
+			long start = (long) r << REGION_SHIFT;
+			long size = Math.min(data - start, (1L << REGION_SHIFT) + 1);
+			regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + start, size);
+		}
+	}
+
+	/**
+	 * Description: Maps a corpus file read-only
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static PieceCorpus open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new PieceCorpus(channel);
+		}
+	}
+
+	/**
+	 * Description: Writes the corpus of the given games. The file is written under a temporary name and
+	 * renamed, so processes never map a half written corpus
+	 * @param path
+	 * @param firstSeed seed of game 0
+	 * @param games
+	 * @param piecesPerGame
+	 * @throws IOException
+	 */
+	public static void write(Path path, long firstSeed, int games, int piecesPerGame) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (OutputStream file = Files.newOutputStream(tmp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(firstSeed);
+			out.writeInt(games);
+			out.writeInt(piecesPerGame);
+
+			long buffer = 0;
+			int count = 0;
+			for (int g = 0; g < games; g++) {
+				SeededPieceSource pieces = new SeededPieceSource(firstSeed + g);
+				for (int turn = 0; turn < piecesPerGame; turn++) {
+					buffer |= (long) pieces.pieceAt(turn) << count;
+					count += BITS;
+					while (count >= 8) {
+						out.write((int) buffer);
+						buffer >>>= 8;
+						count -= 8;
+					}
+				}
+			}
+			// the last partial byte, and one spare byte so a piece can always be read as two bytes
+			out.write((int) buffer);
+			out.write(0);
+			out.flush();
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long dataBytes(int games, int piecesPerGame) {
+		return (long) games * piecesPerGame * BITS / 8 + 2;
+	}
+
+	public long getFirstSeed() {
+		return firstSeed;
+	}
+
+	public int getGames() {
+		return games;
+	}
+
+	public int getPiecesPerGame() {
+		return piecesPerGame;
+	}
+
+	/**
+	 * Description: Gives the pieces of the seeded game, read from the corpus when the corpus holds it
+	 * @param seed
+	 * @return
+	 */
+	public SeededPieceSource source(long seed) {
+		long game = seed - firstSeed;
+		if (game < 0 || game >= games) {
+			return new SeededPieceSource(seed);
+		}
+		return new CorpusPieceSource(seed, game * piecesPerGame * BITS);
+	}
+
+	/**
+	 * Description: Gives the piece at the given bit of the corpus
+	 */
+	private int pieceAtBit(long bit) {
+		long at = bit >>> 3;
+		MappedByteBuffer region = regions[(int) (at >>> REGION_SHIFT)];
+		int index = (int) (at & ((1L << REGION_SHIFT) - 1));
+		int window = (region.get(index) & 0xff) | (region.get(index + 1) & 0xff) << 8;
+		return (window >>> (bit & 7)) & ((1 << BITS) - 1);
+	}
+
+	/**
+	 * Pieces of one corpus game, carrying on with the seed past the end of the corpus
+	 */
+	private final class CorpusPieceSource extends SeededPieceSource {
+		private final long firstBit;
+
+		CorpusPieceSource(long seed, long firstBit) {
+			super(seed);
+			this.firstBit = firstBit;
+		}
+
+		@Override
+		public int pieceAt(int turn) {
+			if (turn < piecesPerGame) {
+				return pieceAtBit(firstBit + (long) turn * BITS);
+			}
+			return super.pieceAt(turn);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: PieceCorpus <output file> <games> <pieces per game> [first seed]");
+			System.exit(1);
+		}
+		int games = Integer.parseInt(args[1]);
+		int piecesPerGame = Integer.parseInt(args[2]);
+		long firstSeed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		long start = System.nanoTime();
+		write(Paths.get(args[0]), firstSeed, games, piecesPerGame);
+		System.out.println("Wrote " + games + " games of " + piecesPerGame + " pieces (seeds " + firstSeed + " to "
+						   + (firstSeed + games - 1) + ") in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
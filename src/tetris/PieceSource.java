@@ -0,0 +1,16 @@
+package tetris;
+
+/**
+ * Supplies the piece for every turn of a game. Pieces are looked up by turn number rather than drawn
+ * one after another, so a game can be copied part way through and both copies keep seeing the same
+ * sequence.
+ */
+public interface PieceSource {
+
+	/**
+	 * Description: Gives the piece (0 to State.N_PIECES - 1) that is dealt on the given turn
+	 * @param turn
+	 * @return
+	 */
+	int pieceAt(int turn);
+}
@@ -1,19 +1,41 @@
 package tetris;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
-import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PlayerSkeleton {
 	
 	//PlayerSkeleton Parameters
 	private Gene g;
+	private FeatureCache featureCache;	//optional, shared feature vectors of moves (see pickMove)
+	private FeatureEngine featureEngine = FeatureEngine.fromSystemProperty();	//null for the TestState path
+	private FixedPointScorer fixedPoint;	//optional, scores feature vectors with integers only
+	private BoundedMovePicker boundedPicker;	//optional, skips moves that cannot win (see pickMove)
+	private PolicyTable policyTable;	//optional, precomputed moves of one Gene (see pickMove)
+	private volatile boolean checkpointRequested;	//set by requestCheckpoint(), see playGame
+	private DecisionTrace decisionTrace;	//optional, sampled decisions written for analysis
+	
+	//reusable TestStates of each thread (see TestStateArena)
+	private final ThreadLocal<TestStateArena> arenas = new ThreadLocal<TestStateArena>() {
+		@Override
+		protected TestStateArena initialValue() {
+			return new TestStateArena();
+		}
+	};
+	
+	//checks that TestStates of an arena are not used after release, -Dtetris.arena.debug=true
+	private static final boolean ARENA_DEBUG = Boolean.getBoolean("tetris.arena.debug");
 	
 	/** CONSTRUCTORS **/
 	
@@ -64,6 +86,11 @@ public class PlayerSkeleton {
 		private int prevColHt;
 		private int rowsCleared;
 		
+		//buffers of a TestState reused by a TestStateArena, null otherwise
+		private int[][] boardBuffer;
+		private int[] topBuffer;
+		private boolean live = true;
+		
 		/**
 		 * Constructor for TestState
 		 * Description: Takes in the initial field/board, the field/board tops, the piece type and the move
@@ -90,6 +117,47 @@ public class PlayerSkeleton {
 			testingMove();
 		}
 		
+		/**
+		 * Constructor for TestState
+		 * Description: Makes an empty TestState with its own board and top buffers, to be filled with 
+		 * reset() by a TestStateArena
+		 */
+		private TestState(){
+			boardBuffer = new int[State.ROWS][State.COLS];
+			topBuffer = new int[State.COLS];
+		}
+		
+		/**
+		 * Description: Copies the board and tops into the buffers of this TestState and takes the move, as
+		 * the constructor does with the arrays it is given
+		 * 
+		 * @param board
+		 * @param boardTop
+		 * @param piece
+		 * @param move
+		 */
+		private void reset(int[][] board, int[] boardTop, int piece, int[] move){
+			for(int r = 0; r < State.ROWS; r++){
+				System.arraycopy(board[r], 0, boardBuffer[r], 0, State.COLS);
+			}
+			System.arraycopy(boardTop, 0, topBuffer, 0, State.COLS);
+			this.board = boardBuffer;
+			this.boardTop = topBuffer;
+			this.piece = piece;
+			this.move = move;
+			this.placedPieceHt = State.getpHeight()[piece][move[0]];
+			this.prevColHt = colHeight(move[1], boardBuffer);
+			this.rowsCleared = 0;
+			this.live = true;
+			testingMove();
+		}
+		
+		private void checkLive(){
+			if(ARENA_DEBUG && !live){
+				throw new IllegalStateException("TestState used after its arena was released");
+			}
+		}
+		
 		/**
 		 * Description: Takes the move and returns the field/board. Used to check the results of a move without 
 		 * actually doing the move. Updates the various parameters like board and boardTop. Returns null if
@@ -153,18 +221,22 @@ public class PlayerSkeleton {
 					if (full) {
 						rowsCleared++;
 						
-						// for each column
-						for (int c = 0; c < State.COLS; c++) {
-		
-							// slide down all bricks
-							for (int i = r; i < boardTop[c]; i++) {
-								board[i][c] = board[i + 1][c];
-							}
-							// lower the top
+						// slide down by moving row references only, the removed row is emptied and
+						// becomes the top row
+						int[] removed = board[r];
+						System.arraycopy(board, r + 1, board, r, State.ROWS - 1 - r);
+						Arrays.fill(removed, 0);
+						board[State.ROWS - 1] = removed;
+					}
+				}
+				
+				// lower the tops - full rows are below every top, so each column loses all of them and
+				// only a column whose top cell was cleared has to look further down
+				if (rowsCleared > 0) {
+					for (int c = 0; c < State.COLS; c++) {
+						boardTop[c] -= rowsCleared;
+						while (boardTop[c] >= 1 && board[boardTop[c] - 1][c] == 0)
 							boardTop[c]--;
-							while (boardTop[c] >= 1 && board[boardTop[c] - 1][c] == 0)
-								boardTop[c]--;
-						}
 					}
 				}
 			}		
@@ -175,6 +247,7 @@ public class PlayerSkeleton {
 		 * @return
 		 */
 		public int[][] getBoard() {
+			checkLive();
 			return board;
 		}
 
@@ -184,6 +257,7 @@ public class PlayerSkeleton {
 		 * @return
 		 */
 		public int getPlacedPieceHt() {
+			checkLive();
 			return placedPieceHt;
 		}
 
@@ -192,6 +266,7 @@ public class PlayerSkeleton {
 		 * @return
 		 */
 		public int getPrevColHt() {
+			checkLive();
 			return prevColHt;
 		}
 
@@ -200,10 +275,94 @@ public class PlayerSkeleton {
 		 * @return
 		 */
 		public int getRowsCleared() {
+			checkLive();
 			return rowsCleared;
 		}
 	}
 	
+	/**
+	 * TEST STATE ARENA CLASS
+	 * Description: TestStates of one thread, reused from one pickMove() to the next instead of 
+	 * allocating a TestState, a board and a top array per move. TestStates are handed out by next() or
+	 * testStates() and all taken back by release(), after which they must not be used: with 
+	 * -Dtetris.arena.debug=true a released TestState throws when read, and an arena that is opened twice
+	 * without a release throws too.
+	 */
+	public class TestStateArena {
+		
+		//TestStateArena Parameters
+		private TestState[] pool = new TestState[0];
+		private TestState[][] arrays = new TestState[0][];	//arrays given by testStates(), by length
+		private int used;
+		
+		/**
+		 * Description: Gives the next free TestState, holding the result of the move on copies of the
+		 * board and tops
+		 * 
+		 * @param board
+		 * @param boardTop
+		 * @param piece
+		 * @param move
+		 * @return
+		 */
+		public TestState next(int[][] board, int[] boardTop, int piece, int[] move){
+			if(used == pool.length){
+				pool = Arrays.copyOf(pool, Math.max(8, pool.length * 2));
+				for(int i = used; i < pool.length; i++){
+					pool[i] = new TestState();
+				}
+			}
+			TestState t = pool[used++];
+			t.reset(board, boardTop, piece, move);
+			return t;
+		}
+		
+		/**
+		 * Description: Gives the TestStates of the legal moves, as PlayerSkeleton.testStates() does. The
+		 * array is reused as well
+		 * 
+		 * @param s
+		 * @param legalMoves
+		 * @return
+		 */
+		public TestState[] testStates(State s, int[][] legalMoves){
+			open();
+			if(arrays.length <= legalMoves.length){
+				arrays = Arrays.copyOf(arrays, legalMoves.length + 1);
+			}
+			if(arrays[legalMoves.length] == null){
+				arrays[legalMoves.length] = new TestState[legalMoves.length];
+			}
+			TestState[] testStates = arrays[legalMoves.length];
+			
+			for(int i = 0; i < legalMoves.length; i++){
+				testStates[i] = next(s.getField(), s.getTop(), s.getNextPiece(), legalMoves[i]);
+			}
+			return testStates;
+		}
+		
+		/**
+		 * Description: Checks, in debug mode, that the TestStates handed out before were released
+		 */
+		public void open(){
+			if(ARENA_DEBUG && used != 0){
+				throw new IllegalStateException("TestStateArena opened before the last release()");
+			}
+		}
+		
+		/**
+		 * Description: Takes back every TestState handed out since the last release
+		 */
+		public void release(){
+			if(ARENA_DEBUG){
+				for(int i = 0; i < used; i++){
+					pool[i].live = false;
+				}
+			}
+			used = 0;
+		}
+	}
+	
 	/**
 	 * HEURISTIC ABSTRACT CLASS
 	 * Description: Contains several important methods and the parameters for the implementation of actual
@@ -236,13 +395,7 @@ public class PlayerSkeleton {
 		 * @return
 		 */
 		protected int emptySpaces(int row){
-			int count = 0;
-			for (int i = 0; i < cols; i++){
-				if (board[row][i] == 0){
-					count++;
-				}
-			}
-			return count;
+			return RowTables.EMPTY_CELLS[RowTables.mask(board[row])];
 		}
 		
 		/**
@@ -251,6 +404,16 @@ public class PlayerSkeleton {
 		 * @throws Exception
 		 */
 		abstract public double getValue() throws Exception;
+		
+		/**
+		 * Description: Gives the position in a feature vector (see Features) of the value given by this 
+		 * heuristic, or -1 if the heuristic is not one of the features. Genes made only of feature 
+		 * heuristics can be scored from a cached feature vector
+		 * @return
+		 */
+		public int getFeature() {
+			return -1;
+		}
 
 		/**
 		 * Description: sets the TestState to be evaluated with the heuristic
@@ -290,6 +453,11 @@ public class PlayerSkeleton {
 			}
 			return rowsCleared;
 		}
+		
+		@Override
+		public int getFeature() {
+			return Features.FILLED_LINES;
+		}
 	}
 	
 	/**
@@ -303,22 +471,12 @@ public class PlayerSkeleton {
 			if(board == null){
 				throw new Exception("No board for Heuristic");
 			}
-			
-			double count = 0;
-			
-			for(int col = 0; col < cols; col++){
-				//position of highest block
-				int height = colHeight(col, testState.getBoard());
-				
-				//Check the rows from bottom up
-				//Increment when an empty space that is below the highest block is found
-				for(int row = 0; row < height; row++){
-					if(board[row][col] == 0){
-						count++;
-					}
-				}
-			}
-			return count;
+			return Features.holes(board);
+		}
+		
+		@Override
+		public int getFeature() {
+			return Features.HOLES;
 		}
 	}
 	
@@ -334,46 +492,13 @@ public class PlayerSkeleton {
 			if(board == null){
 				throw new Exception("No board for Heuristic");
 			}
-			
-			double wellSum = 0;
-			
-			for (int i = 0; i < cols; i++){		
-				
-				//checking the rows for the start of the well
-				for(int j = rows - 1; j >= 0; j--){
-					
-					//both sides of the checked cell are taken to be filled originally
-					boolean isLeftFilled = true;
-					boolean isRightFilled = true;
-					
-					//checks the left cell of the checked cell 
-					//if the checked cell is the leftmost cell, left is taken to be filled
-					if(i != 0 && board[j][i - 1] == 0){		
-						isLeftFilled = false;	
-					}
-					
-					//checks the right cell of the checked cell 
-					//if the checked cell is the rightmost cell, right is taken to be filled
-					if(i != cols - 1 && board[j][i + 1] == 0){
-						isRightFilled = false;
-					}
-
-					//if checked cell is a well cell, count the number of empty spaces in this col
-					//i.e. the length of the well
-					if(board[j][i] == 0 && isLeftFilled && isRightFilled){
-						for(int k = j; k >= 0; k--){	
-							if(board[k][i] == 0){
-								wellSum++;
-							} else {
-								break;
-							}
-						}
-					}
-				}
-			}
-			return wellSum;
+			return Features.wellSums(board);
 		}
 		
+		@Override
+		public int getFeature() {
+			return Features.WELL_SUMS;
+		}
 	}
 	
 	/**
@@ -391,8 +516,13 @@ public class PlayerSkeleton {
 			} 
 			
 			//landing height formula
-			return testState.getPrevColHt() + testState.getPlacedPieceHt()/2;
+			return Features.landingHeight(testState.getPrevColHt(), testState.getPlacedPieceHt());
 		}	
+		
+		@Override
+		public int getFeature() {
+			return Features.LANDING_HEIGHT;
+		}
 	}
 	
 	/**
@@ -407,38 +537,12 @@ public class PlayerSkeleton {
 			if(board == null){
 				throw new Exception("No board for Heuristic");
 			}
-			
-			double transitions = 0;
-			boolean isPrevFilled;		//indicator of fill for previous cell in the same row
-			
-			//checking at row level
-			for (int i = 0; i < rows - 1; i++) {
-				
-				//previous of leftmost column is taken to be filled i.e. left border taken to be filled  
-				isPrevFilled = true;
-				
-				//checking for transitions in the different column but same row
-				for(int j = 0; j < cols; j++){
-					
-					//check for transition from filled to empty found
-					if(board[i][j] == 0 && isPrevFilled){
-						transitions++;
-						isPrevFilled = false;
-						
-					//check for transition from empty to filled found
-					} else if(board[i][j] != 0 && !isPrevFilled){
-						transitions++;
-						isPrevFilled = true;
-					}
-				}
-				
-				//for rightmost row to be checked for previous, right border is taken to be filled
-				if(!isPrevFilled){
-					transitions++;
-				}
-			}
-			
-			return transitions;
+			return Features.rowTransitions(board);
+		}
+		
+		@Override
+		public int getFeature() {
+			return Features.ROW_TRANSITIONS;
 		}
 	}
 	
@@ -455,34 +559,13 @@ public class PlayerSkeleton {
 			if(board == null){
 				throw new Exception("No board for Heuristic");
 			}
-			
-			double transitions = 0;
-			boolean isPrevFilled;		//indicator of fill for previous cell in the same column
-
-			//checking at col level
-			for (int i = 0; i < cols; i++) {
-				
-				//previous of first row is taken to be filled i.e. bottom border is taken to be filled
-				isPrevFilled = true;
-				
-				//checking for transitions in the different row but same col
-				for(int j = 0; j < rows; j++){
-					
-					//check for transition from filled to empty
-					if(board[j][i] == 0 && isPrevFilled){	
-						transitions++;
-						isPrevFilled = false;
-						
-					//check for transition from empty to filled
-					} else if(board[j][i] != 0 && !isPrevFilled){	
-						transitions++;
-						isPrevFilled = true;
-					}
-				}
-			}
-			return transitions;
+			return Features.colTransitions(board);
+		}
+		
+		@Override
+		public int getFeature() {
+			return Features.COL_TRANSITIONS;
 		}
-
 	}
 		
 	/**
@@ -497,8 +580,15 @@ public class PlayerSkeleton {
 		private ArrayList<Heuristic> heuristics;
 		private ArrayList<Double> weights;
 		private int fitness;	
+		private int games;		//number of games the fitness comes from
+		private long seedId;	//seed of the first of those games, PopulationFile.UNSEEDED if random
 		private TestState testState;
 		
+		//built from the heuristics and weights when first needed, cleared whenever they change
+		private volatile GeneEvaluator evaluator;
+		private volatile double[] featureWeights;
+		private volatile long[] fixedWeights;
+		
 		/**
 		 * Constructor for Gene
 		 * Description: Initializes all parameters
@@ -507,6 +597,8 @@ public class PlayerSkeleton {
 			heuristics = new ArrayList<Heuristic>();
 			weights = new ArrayList<Double>();
 			fitness = 0;
+			games = 0;
+			seedId = PopulationFile.UNSEEDED;
 			testState = null;
 		}
 		
@@ -518,6 +610,7 @@ public class PlayerSkeleton {
 		public void addHeuristic(Heuristic h, double weight){
 			heuristics.add(h);
 			weights.add(weight);
+			changed();
 		}
 		
 		/**
@@ -527,16 +620,49 @@ public class PlayerSkeleton {
 		public void removeHeuristic(int pos){
 			heuristics.remove(pos);
 			weights.remove(pos);
+			changed();
+		}
+		
+		/**
+		 * Description: Changes the weight of the heuristic at the given position
+		 * @param pos
+		 * @param weight
+		 */
+		public void setWeight(int pos, double weight){
+			weights.set(pos, weight);
+			changed();
+		}
+		
+		/**
+		 * Description: Drops what was built from the heuristics and weights (see getEvaluator())
+		 */
+		private void changed(){
+			evaluator = null;
+			featureWeights = null;
+			fixedWeights = null;
 		}
 		
 		/**
-		 * Description: Returns all the weights of the heuristics
+		 * Description: Returns all the weights of the heuristics. Change them with setWeight(), not 
+		 * through the list
 		 * @return
 		 */
 		public ArrayList<Double> getWeights(){
 			return weights;
 		}
 		
+		/**
+		 * Description: Returns all the weights of the heuristics as an array, in the same order
+		 * @return
+		 */
+		public double[] getWeightArray(){
+			double[] array = new double[weights.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = weights.get(i);
+			}
+			return array;
+		}
+		
 		/**
 		 * Description: sets the TestState to be evaluated by all heuristics 
 		 * @param ts
@@ -561,6 +687,33 @@ public class PlayerSkeleton {
 			return fitness; 
 		}
 		
+		/**
+		 * Description: Set the number of games the fitness comes from and the seed of the first one 
+		 * (PopulationFile.UNSEEDED for random games)
+		 * @param games
+		 * @param seedId
+		 */
+		public void setGames(int games, long seedId){
+			this.games = games;
+			this.seedId = seedId;
+		}
+		
+		/**
+		 * Description: Get the number of games the fitness comes from
+		 * @return
+		 */
+		public int getGames(){
+			return games;
+		}
+		
+		/**
+		 * Description: Get the seed of the first game the fitness comes from
+		 * @return
+		 */
+		public long getSeedId(){
+			return seedId;
+		}
+		
 		/**
 		 * Description: Gives the score of a move using weights and heuristics. Throws exception if no
 		 * state was set for the gene
@@ -588,6 +741,87 @@ public class PlayerSkeleton {
 			}
 		}
 		
+		/**
+		 * Description: Tells whether every heuristic of the Gene is a feature (see Heuristic.getFeature()),
+		 * i.e. whether the Gene can be scored with evaluateFeatures()
+		 * @return
+		 */
+		public boolean usesFeatures() {
+			for(int i = 0; i < heuristics.size(); i++){
+				if(heuristics.get(i).getFeature() < 0){
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Description: Gives the score of a move from its feature vector (see Features). Gives the same 
+		 * score as evaluateMove() on the move's TestState. Only for Genes where usesFeatures() is true
+		 * @param features
+		 * @return
+		 */
+		public double evaluateFeatures(int[] features) {
+			double score = 0;
+			for(int i = 0; i < heuristics.size(); i++){
+				score += weights.get(i) * features[heuristics.get(i).getFeature()];
+			}
+			return score;
+		}
+		
+		/**
+		 * Description: Gives the evaluator specialized for the current heuristics and weights of the Gene
+		 * (see GeneEvaluator). It is built once and kept until the heuristics or weights change. Only for 
+		 * Genes where usesFeatures() is true
+		 * @return
+		 */
+		public GeneEvaluator getEvaluator() {
+			GeneEvaluator e = evaluator;
+			if(e == null){
+				int[] featureIndex = new int[heuristics.size()];
+				double[] w = new double[heuristics.size()];
+				for(int i = 0; i < heuristics.size(); i++){
+					featureIndex[i] = heuristics.get(i).getFeature();
+					w[i] = weights.get(i);
+				}
+				e = GeneEvaluator.of(featureIndex, w);
+				evaluator = e;
+			}
+			return e;
+		}
+		
+		/**
+		 * Description: Gives the weights indexed by feature position (see Features), for scoring many 
+		 * Genes at once with BatchScorer. The array is kept until the heuristics or weights change and 
+		 * must not be modified. Only for Genes where usesFeatures() is true
+		 * @return
+		 */
+		public double[] getFeatureWeights() {
+			double[] w = featureWeights;
+			if(w == null){
+				w = new double[Features.COUNT];
+				for(int i = 0; i < heuristics.size(); i++){
+					w[heuristics.get(i).getFeature()] += weights.get(i);
+				}
+				featureWeights = w;
+			}
+			return w;
+		}
+		
+		/**
+		 * Description: Gives the feature weights quantized for FixedPointScorer (see 
+		 * FixedPointScorer.quantize()). Kept like getFeatureWeights() and must not be modified
+		 * @return
+		 */
+		public long[] getFixedWeights() {
+			long[] w = fixedWeights;
+			if(w == null){
+				w = FixedPointScorer.quantize(getFeatureWeights());
+				fixedWeights = w;
+			}
+			return w;
+		}
+		
 		@Override
 		/**
 		 * Description: Comparison of two Genes according to their fitness
@@ -656,68 +890,499 @@ public class PlayerSkeleton {
 	}
 	
 	/**
-	 * GENE POOL CLASS
-	 * Description: GenePool creates a list of Genes with weights specified in the file provided to its 
-	 * constructor. Uses the Genetic Algorithm in order to obtain the best set of weights for the Tetris
-	 * Game 
-	 * 
-	 * NOTE: When adding new heuristic, add to LIST_HEURISTIC
+	 * LOCKSTEP GAME CLASS
+	 * Description: Plays a batch of Genes on one shared State for as long as they all choose the same
+	 * moves. The TestStates of each turn are built once and scored by every Gene. At the first piece where
+	 * the chosen moves differ, the State is copied for each extra move and every group of Genes carries on
+	 * with its own copy. Near-duplicate Genes (common after crossover) therefore only pay once for the part
+	 * of the game they have in common. The piece sequence must come from a PieceSource so that all copies
+	 * see the same pieces. When every Gene is made of feature heuristics the shared work is a feature 
+	 * vector per move instead (using the feature cache if one is set), and all the Genes of a State are 
+	 * scored together with BatchScorer.
 	 */
-	public class GenePool {
-
-		private static final String WEIGHTS_FILEPATH = "weights.txt";
-		private static final int NUM_GAMES = 2; // number of games to run before setting 
-												// the fitness of the gene
-		
-		private static final int NUM_GENES_TOURNAMENT = 100; // number of genes needed for each
-															 // tournament selection
-		
-		private static final String WEIGHTS_HEADER = "FilledLines | Holes | WellSums | LandingHeight "
-													 + "| RowTransitions | ColTransitions | Fitness";
-		private final ArrayList<Heuristic> LIST_HEURISTIC = new ArrayList<Heuristic>(){{
-			add(new FilledLinesHeuristic());
-			add(new HolesHeuristic());
-			add(new WellSumsHeuristic());
-			add(new LandingHeightHeuristic());
-			add(new RowTransitionsHeuristic());
-			add(new ColTransitionsHeuristic());
-		}};
+	public class LockstepGame {
 		
-		private int numOfGenes;	//number of genes with fitness set each run
+		//LockstepGame Parameters
+		private PieceSource pieces;
+		private long geneTurns;		//turns played, counted once per Gene
+		private long sharedTurns;	//turns played, counted once per State
+		private int forks;			//number of times a State was copied
+		private int[] piecesPlayed;	//pieces played by each Gene of the last game
+		private int maxPieces = Integer.MAX_VALUE;	//pieces after which the game is stopped
 		
-		private ArrayList<Gene> geneList;	//ArrayList to store the genes to test
-
 		/**
-		 * Constructor for GenePool
-		 * Description: Processes the file specified in the file path and initializes parameters
+		 * Constructor for LockstepGame
+		 * @param pieces
 		 */
-		public GenePool() {
-			geneList = processFile(WEIGHTS_FILEPATH);
-			numOfGenes = 0;
+		public LockstepGame(PieceSource pieces){
+			this.pieces = pieces;
 		}
 		
 		/**
-		 * Description: Returns the geneList of the GenePool
-		 * @return
+		 * Description: Stops the games of play() after the given number of pieces, as if they were lost. 
+		 * 0 or less plays them to the end
+		 * @param maxPieces
 		 */
-		public ArrayList<Gene> getGenes() {
-			return geneList;
+		public void setMaxPieces(int maxPieces) {
+			this.maxPieces = maxPieces > 0 ? maxPieces : Integer.MAX_VALUE;
 		}
-
+		
 		/**
-		 * Description: writes the weights of the ArrayList of Genes (list_genes) into file
-		 * @param filePath
+		 * Description: Plays the game for all the Genes given and returns the number of lines cleared by
+		 * each of them, in the same order
+		 * 
+		 * @param genes
+		 * @return
+		 * @throws Exception
 		 */
-		public void writeToFile(String filePath) {
-			File f = new File(filePath);
+		public int[] play(ArrayList<Gene> genes) throws Exception {
+			int[] linesCleared = new int[genes.size()];
+			piecesPlayed = new int[genes.size()];
 			
-			try {
-				BufferedWriter bw = new BufferedWriter(new FileWriter(f));
-				bw.write(WEIGHTS_HEADER); // header
-				bw.newLine();
-
-				for (int i = 0; i < 1000; i++) {
-					
+			//games still to be played: a State and the positions of the Genes playing on it
+			ArrayList<State> states = new ArrayList<State>();
+			ArrayList<int[]> members = new ArrayList<int[]>();
+			double[][] featureWeights = new double[genes.size()][];
+			
+			int[] all = new int[genes.size()];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = i;
+			}
+			states.add(new State(pieces));
+			members.add(all);
+			
+			boolean useFeatures = true;
+			for (int i = 0; i < genes.size(); i++) {
+				useFeatures &= genes.get(i).usesFeatures();
+				if (useFeatures) {
+					featureWeights[i] = genes.get(i).getFeatureWeights();
+				}
+			}
+			
+			while (!states.isEmpty()) {
+				State s = states.remove(states.size() - 1);
+				int[] group = members.remove(members.size() - 1);
+				double[] weights = useFeatures ? weightMatrix(featureWeights, group) : null;
+				long[] fixedWeights = weights != null && fixedPoint != null ? FixedPointScorer.quantize(weights) 
+																			: null;
+				
+				while (!s.hasLost() && s.getTurnNumber() < maxPieces) {
+					int[] choices;
+					if (useFeatures) {
+						choices = pickMoves(s, weights, fixedWeights, group.length);
+					} else {
+						choices = new int[group.length];
+						TestState[] testStates = testStates(s, s.legalMoves());
+						for (int i = 0; i < group.length; i++) {
+							choices[i] = pickMove(testStates, genes.get(group[i]));
+						}
+					}
+					
+					geneTurns += group.length;
+					sharedTurns++;
+					
+					//split off a copy of the State for every move other than the first Gene's
+					int move = choices[0];
+					int same = 0;
+					for (int i = 0; i < group.length; i++) {
+						if (choices[i] == move) {
+							group[same++] = group[i];
+						} else if (choices[i] != -1) {
+							int other = choices[i];
+							int count = 0;
+							for (int j = i; j < choices.length; j++) {
+								if (choices[j] == other) {
+									count++;
+								}
+							}
+							int[] split = new int[count];
+							count = 0;
+							for (int j = i; j < choices.length; j++) {
+								if (choices[j] == other) {
+									split[count++] = group[j];
+									choices[j] = -1;
+								}
+							}
+							
+							State copy = new State(s);
+							copy.makeMove(other);
+							states.add(copy);
+							members.add(split);
+							forks++;
+						}
+					}
+					if (same < group.length) {
+						group = Arrays.copyOf(group, same);
+						weights = useFeatures ? weightMatrix(featureWeights, group) : null;
+						fixedWeights = weights != null && fixedPoint != null ? FixedPointScorer.quantize(weights) 
+																			 : null;
+					}
+					
+					s.makeMove(move);
+				}
+				
+				for (int i = 0; i < group.length; i++) {
+					linesCleared[group[i]] = s.getRowsCleared();
+					piecesPlayed[group[i]] = s.getTurnNumber();
+				}
+			}
+			return linesCleared;
+		}
+		
+		/**
+		 * Description: Builds the weight matrix (see BatchScorer) of the Genes at the given positions
+		 * @param featureWeights
+		 * @param group
+		 * @return
+		 */
+		private double[] weightMatrix(double[][] featureWeights, int[] group) {
+			double[][] groupWeights = new double[group.length][];
+			for (int i = 0; i < group.length; i++) {
+				groupWeights[i] = featureWeights[group[i]];
+			}
+			return BatchScorer.weightMatrix(groupWeights);
+		}
+		
+		/**
+		 * Description: Gives the number of turns played, counted once for every Gene
+		 * @return
+		 */
+		public long getGeneTurns() {
+			return geneTurns;
+		}
+		
+		/**
+		 * Description: Gives the number of turns actually simulated, counting shared turns only once
+		 * @return
+		 */
+		public long getSharedTurns() {
+			return sharedTurns;
+		}
+		
+		/**
+		 * Description: Gives the number of pieces each Gene of the last play() placed, in the same order
+		 * as its lines cleared
+		 * @return
+		 */
+		public int[] getPieces() {
+			return piecesPlayed;
+		}
+		
+		/**
+		 * Description: Gives the number of times the game was split into separate copies
+		 * @return
+		 */
+		public int getForks() {
+			return forks;
+		}
+	}
+	
+	/**
+	 * GENE POOL CLASS
+	 * Description: GenePool creates a list of Genes with weights specified in the file provided to its 
+	 * constructor. Uses the Genetic Algorithm in order to obtain the best set of weights for the Tetris
+	 * Game 
+	 * 
+	 * NOTE: When adding new heuristic, add to LIST_HEURISTIC
+	 */
+	public class GenePool {
+
+		private static final String WEIGHTS_FILEPATH = "weights.txt";
+		private static final String JOURNAL_FILEPATH = "journal.bin";	//games finished since the snapshot
+		private static final String SNAPSHOT_FILEPATH = "weights.bin";
+		private static final int NUM_GAMES = 2; // number of games to run before setting 
+												// the fitness of the gene
+		
+		private static final int NUM_GENES_TOURNAMENT = 100; // number of genes needed for each
+															 // tournament selection
+		
+		private static final int FEATURE_CACHE_SIZE = 1 << 18; // number of feature vectors shared 
+															   // by all the genes of a generation
+		
+		private static final String WEIGHTS_HEADER = "FilledLines | Holes | WellSums | LandingHeight "
+													 + "| RowTransitions | ColTransitions | Fitness";
+		private final String[] HEURISTIC_NAMES = { "FilledLines", "Holes", "WellSums", 
+														  "LandingHeight", "RowTransitions", "ColTransitions" };
+		private final ArrayList<Heuristic> LIST_HEURISTIC = new ArrayList<Heuristic>(){{
+			add(new FilledLinesHeuristic());
+			add(new HolesHeuristic());
+			add(new WellSumsHeuristic());
+			add(new LandingHeightHeuristic());
+			add(new RowTransitionsHeuristic());
+			add(new ColTransitionsHeuristic());
+		}};
+		
+		private int numOfGenes;	//number of genes with fitness set each run
+		
+		private ArrayList<Gene> geneList;	//ArrayList to store the genes to test
+		
+		private FeatureCache featureCache;	//feature vectors shared by the evaluator threads
+		
+		private EvolutionJournal journal;	//optional, finished games written as they end (see openJournal)
+		
+		private PieceCorpus pieceCorpus;	//optional, pre-generated pieces of the seeded games
+		
+		private int maxPieces;	//optional, pieces after which a seeded game is stopped
+		
+		private FixedPointScorer fixedPoint;	//optional, integer-only scoring of every game
+		
+		private boolean verbose = true;	//whether the progress of setFitness() and openJournal() is printed
+		
+		//finished games by weights and then game index, shared by every Gene with those weights and 
+		//kept until compact()
+		private final ConcurrentHashMap<List<Double>, EvolutionJournal.Result[]> results = 
+				new ConcurrentHashMap<List<Double>, EvolutionJournal.Result[]>();
+
+		/**
+		 * Constructor for GenePool
+		 * Description: Processes the binary snapshot written by compact() if there is one, else the 
+		 * weights file, and initializes parameters. The journal is applied over it by openJournal()
+		 */
+		public GenePool() {
+			geneList = processFile(new File(SNAPSHOT_FILEPATH).exists() ? SNAPSHOT_FILEPATH : WEIGHTS_FILEPATH);
+			numOfGenes = 0;
+			featureCache = new FeatureCache(FEATURE_CACHE_SIZE);
+		}
+		
+		/**
+		 * Constructor for GenePool
+		 * Description: Starts from the given Genes instead of a file, e.g. to benchmark setFitness()
+		 * @param genes
+		 */
+		public GenePool(ArrayList<Gene> genes) {
+			geneList = genes;
+			numOfGenes = 0;
+			featureCache = new FeatureCache(FEATURE_CACHE_SIZE);
+		}
+		
+		/**
+		 * Description: Gives the feature cache shared by all the games of the generation. Should be 
+		 * cleared at the start of each generation
+		 * @return
+		 */
+		public FeatureCache getFeatureCache() {
+			return featureCache;
+		}
+		
+		/**
+		 * Description: Sets the corpus the pieces of seeded games are read from (see PieceCorpus). The 
+		 * games are the same with or without it. Null generates the pieces
+		 * @param pieceCorpus
+		 */
+		public void setPieceCorpus(PieceCorpus pieceCorpus) {
+			this.pieceCorpus = pieceCorpus;
+		}
+		
+		/**
+		 * Description: Stops the seeded games of setFitness(genes, seed) after the given number of pieces
+		 * (see LockstepGame.setMaxPieces()), so that strong Genes finish. 0 plays them to the end
+		 * @param maxPieces
+		 */
+		public void setMaxPieces(int maxPieces) {
+			this.maxPieces = maxPieces;
+		}
+		
+		/**
+		 * Description: Scores the moves of every game with integers only (see FixedPointScorer), in 
+		 * setFitness(gene) as well as in the lockstep games of setFitness(genes, seed). Null scores with 
+		 * doubles
+		 * @param fixedPoint
+		 */
+		public void setFixedPointScorer(FixedPointScorer fixedPoint) {
+			this.fixedPoint = fixedPoint;
+		}
+		
+		/**
+		 * Description: Turns the progress printed by setFitness() and openJournal() on or off. Errors 
+		 * are always printed
+		 * @param verbose
+		 */
+		public void setVerbose(boolean verbose) {
+			this.verbose = verbose;
+		}
+		
+		/**
+		 * Description: Gives the number of games each Gene plays for its fitness
+		 * @return
+		 */
+		public int getGamesPerGene() {
+			return NUM_GAMES;
+		}
+		
+		/**
+		 * Description: Returns the geneList of the GenePool
+		 * @return
+		 */
+		public ArrayList<Gene> getGenes() {
+			return geneList;
+		}
+		
+		/**
+		 * Description: Replays the journal at the given path, if there is one, and then keeps appending 
+		 * every finished game to it. Genes whose games are all in the journal get their fitness back, 
+		 * and setFitness() only plays the games that are missing. Results for Genes that already have a
+		 * fitness are ignored, so replaying a journal over a snapshot that already holds its results is 
+		 * harmless
+		 * @param filePath
+		 * @throws IOException
+		 */
+		public void openJournal(String filePath) throws IOException {
+			int replayed = 0;
+			for (EvolutionJournal.Result r : EvolutionJournal.read(Paths.get(filePath))) {
+				ArrayList<Double> weights = new ArrayList<Double>();
+				for (double w : r.getWeights()) {
+					weights.add(w);
+				}
+				if (r.getGame() >= 0 && r.getGame() < NUM_GAMES) {
+					resultsOf(weights)[r.getGame()] = r;
+					replayed++;
+				}
+			}
+			
+			//games of Genes that have a fitness, or are no longer in the pool, are not needed
+			results.keySet().retainAll(unfinishedWeights());
+			
+			//every Gene with the same weights gets its fitness back from the same games
+			int restored = 0;
+			for (Gene g : geneList) {
+				if (g.getFit() == 0 && finish(g)) {
+					restored++;
+				}
+			}
+			if (verbose) {
+				System.out.println("Replayed " + replayed + " games from " + filePath + ", restored the fitness "
+								   + "of " + restored + " genes");
+			}
+			journal = new EvolutionJournal(Paths.get(filePath));
+		}
+		
+		/**
+		 * Description: Writes the Genes to a binary snapshot (see writeBinaryFile()), which the next 
+		 * GenePool starts from, and then cuts the kept games and the journal down to the games of Genes 
+		 * that are not finished. The snapshot is renamed into place before the journal is replaced, so a 
+		 * crash at any point leaves a snapshot and journal that replay to the same population. Call it 
+		 * between generations, while no games are played
+		 * @param snapshotPath
+		 * @throws IOException
+		 */
+		public void compact(String snapshotPath) throws IOException {
+			if (journal != null) {
+				journal.flush();
+			}
+			writeBinaryFile(snapshotPath);
+			results.keySet().retainAll(unfinishedWeights());
+			if (journal == null) {
+				return;
+			}
+			
+			ArrayList<EvolutionJournal.Result> keep = new ArrayList<EvolutionJournal.Result>();
+			for (EvolutionJournal.Result[] games : results.values()) {
+				for (EvolutionJournal.Result r : games) {
+					if (r != null) {
+						keep.add(r);
+					}
+				}
+			}
+			journal.compact(keep);
+		}
+		
+		/**
+		 * Description: Writes the rest of the journal and closes it
+		 * @throws IOException
+		 */
+		public void closeJournal() throws IOException {
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+		}
+		
+		/**
+		 * Description: Gives the weights of the Genes of the pool without a fitness
+		 * @return
+		 */
+		private HashSet<List<Double>> unfinishedWeights() {
+			HashSet<List<Double>> unfinished = new HashSet<List<Double>>();
+			for (Gene g : geneList) {
+				if (g.getFit() == 0) {
+					unfinished.add(g.getWeights());
+				}
+			}
+			return unfinished;
+		}
+		
+		/**
+		 * Description: Gives the finished games of the Gene with these weights, by game index
+		 * @param weights
+		 * @return
+		 */
+		private EvolutionJournal.Result[] resultsOf(List<Double> weights) {
+			EvolutionJournal.Result[] games = results.get(weights);
+			if (games == null) {
+				EvolutionJournal.Result[] created = new EvolutionJournal.Result[NUM_GAMES];
+				games = results.putIfAbsent(new ArrayList<Double>(weights), created);
+				if (games == null) {
+					games = created;
+				}
+			}
+			return games;
+		}
+		
+		/**
+		 * Description: Keeps a finished game of the Gene and appends it to the journal
+		 * @param g
+		 * @param game
+		 * @param seed
+		 * @param lines
+		 * @param pieces
+		 * @param durationNanos
+		 */
+		private void record(Gene g, int game, long seed, long lines, long pieces, long durationNanos) {
+			EvolutionJournal.Result r = new EvolutionJournal.Result(g.getWeightArray(), game, seed, lines, 
+																	 pieces, durationNanos);
+			resultsOf(g.getWeights())[game] = r;
+			if (journal != null) {
+				journal.append(r);
+			}
+		}
+		
+		/**
+		 * Description: Sets the fitness of the Gene if all its games are finished. The games are kept, so 
+		 * that other Genes with the same weights get the same fitness
+		 * @param g
+		 * @return whether the fitness was set
+		 */
+		private boolean finish(Gene g) {
+			EvolutionJournal.Result[] games = results.get(g.getWeights());
+			if (games == null) {
+				return false;
+			}
+			long count = 0;
+			for (EvolutionJournal.Result r : games) {
+				if (r == null) {
+					return false;
+				}
+				count += r.getLines();
+			}
+			g.setFit((int) (count / NUM_GAMES));
+			g.setGames(NUM_GAMES, games[0].getSeed());
+			return true;
+		}
+
+		/**
+		 * Description: writes the weights of the ArrayList of Genes (list_genes) into file
+		 * @param filePath
+		 */
+		public void writeToFile(String filePath) {
+			File f = new File(filePath);
+			
+			try {
+				BufferedWriter bw = new BufferedWriter(new FileWriter(f));
+				bw.write(WEIGHTS_HEADER); // header
+				bw.newLine();
+
+				for (int i = 0; i < geneList.size(); i++) {
+					
 					//get Gene and the weights for the Gene
 					Gene g = geneList.get(i);
 					ArrayList<Double> weights = g.getWeights();
@@ -740,46 +1405,56 @@ public class PlayerSkeleton {
 		}
 
 		/**
-		 * Description: Generates a list of Genes according to the weights specified in the file
+		 * Description: writes the Genes, with their fitness, games and seed ids, into a binary population
+		 * file (see PopulationFile)
+		 * @param filePath
+		 */
+		public void writeBinaryFile(String filePath) {
+			PopulationFile population = new PopulationFile(HEURISTIC_NAMES, geneList.size());
+			for (int i = 0; i < geneList.size(); i++) {
+				Gene g = geneList.get(i);
+				population.set(i, g.getWeightArray(), g.getFit(), g.getGames(), g.getSeedId());
+			}
+			
+			try {
+				population.writeBinary(Paths.get(filePath));
+			} catch (IOException e) {
+				System.out.println("Sorry but the file failed to save properly");
+			}
+		}
+
+		/**
+		 * Description: Generates a list of Genes according to the weights specified in the file, a text
+		 * file as written by writeToFile() or a binary one as written by writeBinaryFile()
 		 * @param filePath
 		 * @return
 		 */
 		public ArrayList<Gene> processFile(String filePath) {
 			ArrayList<Gene> fileGenes = new ArrayList<Gene>();
 			
+			PopulationFile population;
+			int[] columns;
 			try {
-				File f = new File(filePath);
-				Scanner sc = new Scanner(f);
-				sc.nextLine();
-
-				//obtaining all weights from the file and creating the corresponding Gene
-				while (sc.hasNext()) {
-					
-					//copying weights into an ArrayList
-					ArrayList<Double> weights = new ArrayList<Double>();
-					for (int i = 0; i < LIST_HEURISTIC.size(); i++){
-						weights.add(Double.parseDouble(sc.next()));
-					}
-
-					//get fitness of Gene from file to save recalculating fitness
-					int fitness = 0;
-					if (sc.hasNextInt()) {
-						fitness = sc.nextInt();
-					}
-
-					//replicate the Gene with the fitness and weights 
-					Gene g = new Gene();
-					for (int i = 0; i < LIST_HEURISTIC.size(); i++){
-						g.addHeuristic(LIST_HEURISTIC.get(i), weights.get(i));
-					}
-					g.setFit(fitness);
+				population = PopulationFile.read(Paths.get(filePath));
+				columns = population.columns(HEURISTIC_NAMES);
+			} catch (NoSuchFileException e) {
+				System.out.println("The weights file is not found");
+				return fileGenes;
+			} catch (IOException e) {
+				System.out.println("The weights file could not be read: " + e);
+				return fileGenes;
+			}
 
-					fileGenes.add(g);
+			//replicate each Gene with the fitness and weights from the file
+			for (int i = 0; i < population.size(); i++) {
+				Gene g = new Gene();
+				for (int j = 0; j < LIST_HEURISTIC.size(); j++){
+					g.addHeuristic(LIST_HEURISTIC.get(j), population.getWeights(i)[columns[j]]);
 				}
-				
-				sc.close();
-			} catch (FileNotFoundException e) {
-				System.out.println("The weights file is not found");
+				g.setFit((int) population.getFitness(i));
+				g.setGames(population.getGames(i), population.getSeedId(i));
+
+				fileGenes.add(g);
 			}
 			return fileGenes;
 		}
@@ -892,7 +1567,7 @@ public class PlayerSkeleton {
 									: gene.getWeights().get(geneNum) + 0.2;
 
 				// Set new mutated weight
-				gene.getWeights().set(geneNum, mWeight);
+				gene.setWeight(geneNum, mWeight);
 			}
 
 			return gene;
@@ -930,28 +1605,106 @@ public class PlayerSkeleton {
 				return g.getFit();
 			}
 			PlayerSkeleton player = new PlayerSkeleton(g);
+			player.setFeatureCache(featureCache);
+			player.setFixedPointScorer(fixedPoint);
 			
-			int count = 0;
-			
+			EvolutionJournal.Result[] done = resultsOf(g.getWeights());
 			for (int j = 0; j < NUM_GAMES; j++) {
+				//games already in the journal are not played again
+				if (done[j] != null) {
+					continue;
+				}
 				try {
-					//add number of lines cleared to the count
-					count += player.playGame(g);
+					State s = new State();
+					long start = System.nanoTime();
+					int lines = player.playGame(g, s);
+					record(g, j, PopulationFile.UNSEEDED, lines, s.getTurnNumber(), System.nanoTime() - start);
 					
 				} catch (Exception e) {
 					System.out.println("Error occured while simulating the game: " + e);
 				}
 			}
 			
+			//get the average fitness
+			if (!finish(g)) {
+				return 0;
+			}
+			
 			//Output
-			System.out.println("Setting fitness for gene: " + g.getWeights());
-			System.out.println( "Fitness: " + count / NUM_GAMES);
-			System.out.println("Num of genes with fitness set: " + (++numOfGenes));
+			numOfGenes++;
+			if (verbose) {
+				System.out.println("Setting fitness for gene: " + g.getWeights());
+				System.out.println( "Fitness: " + g.getFit());
+				System.out.println("Num of genes with fitness set: " + numOfGenes);
+			}
 			
-			//get the average fitness
-			g.setFit(count / NUM_GAMES);
+			return g.getFit();
+		}
+
+		/**
+		 * Description: Plays the games for all the given Genes without a fitness in lockstep (see 
+		 * LockstepGame) in order to set their fitness. Game j uses the piece sequence of seed + j, so every
+		 * Gene is measured on the same games
+		 * 
+		 * @param genes
+		 * @param seed
+		 */
+		public void setFitness(ArrayList<Gene> genes, long seed) {
+			ArrayList<Gene> toPlay = new ArrayList<Gene>();
+			for (Gene g : genes) {
+				if (g.getFit() == 0) {
+					toPlay.add(g);
+				}
+			}
+			if (toPlay.isEmpty()) {
+				return;
+			}
+			
+			PlayerSkeleton player = new PlayerSkeleton();
+			player.setFeatureCache(featureCache);
+			player.setFixedPointScorer(fixedPoint);
+			
+			for (int j = 0; j < NUM_GAMES; j++) {
+				//games already in the journal are not played again
+				ArrayList<Gene> players = new ArrayList<Gene>();
+				for (Gene g : toPlay) {
+					if (resultsOf(g.getWeights())[j] == null) {
+						players.add(g);
+					}
+				}
+				if (players.isEmpty()) {
+					continue;
+				}
+				
+				PieceSource pieces = pieceCorpus != null ? pieceCorpus.source(seed + j) 
+														 : new SeededPieceSource(seed + j);
+				LockstepGame game = player.new LockstepGame(pieces);
+				game.setMaxPieces(maxPieces);
+				try {
+					long start = System.nanoTime();
+					int[] lines = game.play(players);
+					long duration = System.nanoTime() - start;
+					for (int i = 0; i < lines.length; i++) {
+						record(players.get(i), j, seed + j, lines[i], game.getPieces()[i], duration);
+					}
+				} catch (Exception e) {
+					System.out.println("Error occured while simulating the game: " + e);
+				}
+				if (verbose) {
+					System.out.println("Game " + j + ": simulated " + game.getSharedTurns() + " of " 
+									   + game.getGeneTurns() + " turns (" + game.getForks() + " forks)");
+				}
+			}
 			
-			return count / NUM_GAMES;
+			for (Gene g : toPlay) {
+				if (finish(g)) {
+					numOfGenes++;
+				}
+			}
+			if (verbose) {
+				System.out.println("Num of genes with fitness set: " + numOfGenes);
+				System.out.println(featureCache);
+			}
 		}
 
 		/**
@@ -972,6 +1725,7 @@ public class PlayerSkeleton {
 //			// keep track of the runs
 //			RunnableThread[] threadArr = new RunnableThread[nThreads];
 //			RunnableThread.gp = new GenePool();
+//			RunnableThread.gp.openJournal(JOURNAL_FILEPATH);
 //			
 //			while (true) {
 //				int currCount = 0;
@@ -1010,6 +1764,8 @@ public class PlayerSkeleton {
 //				}
 //
 //				// end of multithreading
+//				System.out.println(RunnableThread.gp.getFeatureCache());
+//				RunnableThread.gp.getFeatureCache().clear();
 //	
 //				//Then we add in the new genes produced[selection, mutation, crossover]
 //				ArrayList<Gene> newGenes = RunnableThread.gp.newGeneArray(300);
@@ -1020,6 +1776,7 @@ public class PlayerSkeleton {
 //				RunnableThread.gp.genes.addAll(newGenes);
 //				
 //				RunnableThread.gp.writeToFile(WEIGHTS_FILEPATH);
+//				RunnableThread.gp.compact(SNAPSHOT_FILEPATH);
 //				System.out.println("End of generation " + generation++);
 //				System.out.println("The best set of weights: "
 //						+ RunnableThread.gp.getGene(0).getWeights());
@@ -1044,36 +1801,395 @@ public class PlayerSkeleton {
 	 * @throws Exception
 	 */
 	public int pickMove(State s, int[][] legalMoves, Gene gene) throws Exception {
-		int move = 0; //move 0 is valid, but will only remain as 0 if all moves lead to the same result
-					  //i.e. all cause death; return null board
+		int move = chooseMove(s, legalMoves, gene);
+		if(decisionTrace != null && gene.usesFeatures() && decisionTrace.sample()){
+			trace(s, legalMoves, gene, move);
+		}
+		return move;
+	}
+	
+	/**
+	 * Description: Chooses the move of pickMove() with the policy table, bounded picker, feature 
+	 * vectors or TestStates, whichever is set up
+	 * 
+	 * @param s
+	 * @param legalMoves
+	 * @param gene
+	 * @return
+	 * @throws Exception
+	 */
+	private int chooseMove(State s, int[][] legalMoves, Gene gene) throws Exception {
+		if(policyTable != null && legalMoves == s.legalMoves() && gene.usesFeatures() 
+				&& policyTable.matches(gene.getFeatureWeights())){
+			int move = policyTable.lookup(s.getField(), s.getTop(), s.getNextPiece(), legalMoves);
+			if(move >= 0){
+				return move;
+			}
+		}
+		if(boundedPicker != null && gene.usesFeatures()){
+			return boundedPicker.pickMove(s.getField(), s.getNextPiece(), legalMoves, gene.getFeatureWeights(), 
+										  gene.getEvaluator());
+		}
+		if((featureCache != null || featureEngine != null || fixedPoint != null) && gene.usesFeatures()){
+			return pickMove(featureVectors(s, legalMoves), gene);
+		}
+		TestStateArena arena = arenas.get();
+		try {
+			return pickMove(arena.testStates(s, legalMoves), gene);
+		} finally {
+			arena.release();
+		}
+	}
+	
+	/**
+	 * Description: Adds the decision to the trace, with the feature vectors of every legal move and the
+	 * move chosen by pickMove()
+	 * 
+	 * @param s
+	 * @param legalMoves
+	 * @param gene
+	 * @param move
+	 */
+	private void trace(State s, int[][] legalMoves, Gene gene, int move) {
+		int[][] features = featureVectors(s, legalMoves);
+		double score = features[move] == FeatureCache.LOST ? Double.NEGATIVE_INFINITY 
+							: gene.getEvaluator().score(features[move]);
+		decisionTrace.add(s.getNextPiece(), features, move, score);
+	}
+	
+	/**
+	 * Description: Takes the feature vectors of every legal move (see featureVectors()) and a Gene, and
+	 * returns the chosen move. Picks the same move as pickMove() on the TestStates, unless fixed-point 
+	 * scoring is on
+	 * 
+	 * @param features
+	 * @param gene
+	 * @return
+	 */
+	public int pickMove(int[][] features, Gene gene) {
+		if(fixedPoint != null){
+			return fixedPoint.pickMove(features, gene.getFixedWeights(), gene.getFeatureWeights());
+		}
 		
+		GeneEvaluator evaluator = gene.getEvaluator();
+		int move = 0;
 		double moveScore = -1000000; 
 		
-		for(int i = 0; i < legalMoves.length; i++){
+		for(int i = 0; i < features.length; i++){
 			
-			TestState b = new TestState(cloneBoard(s.getField()), s.getTop().clone(),
-										s.getNextPiece(), legalMoves[i]);
+			//the move causes death, therefore move is skipped
+			if(features[i] == FeatureCache.LOST){
+				continue;
+			}
 			
-			//To avoid overwritting issues with threads
-			Gene trainGene = gene;
-			trainGene.setTestState(b);
+			double score = evaluator.score(features[i]);
+			if(score > moveScore){
+				move = i;
+				moveScore = score;
+			}
+		}
+		return move;
+	}
+	
+	/**
+	 * Description: Takes the TestStates of every legal move (see testStates()) and a Gene, and returns the
+	 * chosen move. The TestStates are only read, so the same array can be used to pick moves for
+	 * several Genes
+	 * 
+	 * @param testStates
+	 * @param gene
+	 * @return
+	 * @throws Exception
+	 */
+	public int pickMove(TestState[] testStates, Gene gene) throws Exception {
+		int move = 0; //move 0 is valid, but will only remain as 0 if all moves lead to the same result
+					  //i.e. all cause death; return null board
+		
+		double moveScore = -1000000; 
+		
+		for(int i = 0; i < testStates.length; i++){
 			
 			//A null board means that the move causes death, therefore move is skipped
-			if(trainGene.getTestState().getBoard() == null){ 
+			if(testStates[i].getBoard() == null){ 
 				continue;
 			}
 			
+			gene.setTestState(testStates[i]);
+			
 			//comparing score of moves to select the move with best score
-			if(trainGene.evaluateMove() > moveScore){
+			double score = gene.evaluateMove();
+			if(score > moveScore){
 				move = i;
-				moveScore = trainGene.evaluateMove();
+				moveScore = score;
 			}
 			
 			//precaution to check that new testState is to be set for next move
-			trainGene.setTestState(null);
+			gene.setTestState(null);
 		}	
 		return move;
 	}
+	
+	/**
+	 * Description: Gives the TestState resulting from each of the legal moves of the current State, in the
+	 * same order as legalMoves. The TestStates are new and can be kept, pickMove() uses the reusable ones
+	 * of its thread's TestStateArena instead
+	 * 
+	 * @param s
+	 * @param legalMoves
+	 * @return
+	 */
+	public TestState[] testStates(State s, int[][] legalMoves) {
+		TestState[] testStates = new TestState[legalMoves.length];
+		
+		for(int i = 0; i < legalMoves.length; i++){
+			testStates[i] = new TestState(cloneBoard(s.getField()), s.getTop().clone(),
+										  s.getNextPiece(), legalMoves[i]);
+		}
+		return testStates;
+	}
+
+	/**
+	 * Description: Gives the move chosen by each of the Genes for the current State, in the same order as
+	 * the Genes. The feature vectors of the moves are computed once and scored for all the Genes together 
+	 * (see BatchScorer), with integers when a FixedPointScorer is set. Every Gene must be made of feature 
+	 * heuristics only
+	 * 
+	 * @param s
+	 * @param genes
+	 * @return
+	 */
+	public int[] pickMoves(State s, ArrayList<Gene> genes) {
+		double[][] featureWeights = new double[genes.size()][];
+		for(int i = 0; i < genes.size(); i++){
+			featureWeights[i] = genes.get(i).getFeatureWeights();
+		}
+		double[] weights = BatchScorer.weightMatrix(featureWeights);
+		return pickMoves(s, weights, fixedPoint != null ? FixedPointScorer.quantize(weights) : null, genes.size());
+	}
+	
+	/**
+	 * Description: Same as pickMoves(State, ArrayList), with the weight matrix of the Genes already built
+	 * (see BatchScorer.weightMatrix()) and quantized (see FixedPointScorer.quantize())
+	 * 
+	 * @param s
+	 * @param weights
+	 * @param fixedWeights the quantized weight matrix, only read when a FixedPointScorer is set
+	 * @param genes
+	 * @return
+	 */
+	public int[] pickMoves(State s, double[] weights, long[] fixedWeights, int genes) {
+		int[][] legalMoves = s.legalMoves();
+		boolean[] lost = new boolean[legalMoves.length];
+		int[] features = BatchScorer.featureMatrix(featureVectors(s, legalMoves), lost);
+		if(fixedPoint != null){
+			return fixedPoint.bestMoves(features, lost, legalMoves.length, fixedWeights, weights, genes);
+		}
+		return BatchScorer.bestMoves(features, lost, legalMoves.length, weights, genes);
+	}
+	
+	/**
+	 * Description: Gives the feature vector (see Features) resulting from each of the legal moves of the 
+	 * current State, in the same order as legalMoves. Moves that lose the game give FeatureCache.LOST. 
+	 * Vectors are looked up in and added to the feature cache when one is set and legalMoves is the 
+	 * State's own list (s.legalMoves()), and computed by the feature engine when one is set
+	 * 
+	 * @param s
+	 * @param legalMoves
+	 * @return
+	 */
+	public int[][] featureVectors(State s, int[][] legalMoves) {
+		int piece = s.getNextPiece();
+		int[][] features = new int[legalMoves.length][];
+		FeatureCache.Board packed = null;
+		
+		//cache keys hold the index of the move in the piece's legal moves, so only the full list of
+		//legal moves can use the cache
+		FeatureCache cache = legalMoves == State.legalMoves[piece] ? featureCache : null;
+		
+		boolean missed = true;
+		if(cache != null){
+			packed = FeatureCache.packBoard(s.getField());
+			missed = false;
+			for(int i = 0; i < legalMoves.length; i++){
+				features[i] = landingHeight(cache.get(packed, piece, i), s, piece, legalMoves[i]);
+				missed |= features[i] == null;
+			}
+		}
+		if(!missed){
+			return features;
+		}
+		
+		//an engine computes all the moves at once
+		int[][] computed = null;
+		TestStateArena arena = null;
+		if(featureEngine != null){
+			computed = featureEngine.compute(s.getField(), s.getTop(), piece, legalMoves);
+		} else {
+			arena = arenas.get();
+			arena.open();
+		}
+		
+		for(int i = 0; i < legalMoves.length; i++){
+			if(features[i] != null){
+				continue;
+			}
+			
+			if(computed != null){
+				features[i] = computed[i];
+			} else {
+				TestState b = arena.next(s.getField(), s.getTop(), piece, legalMoves[i]);
+				if(b.getBoard() == null){
+					features[i] = FeatureCache.LOST;
+				} else {
+					features[i] = Features.compute(b.getBoard(), b.getPrevColHt(), b.getPlacedPieceHt());
+				}
+				arena.release();
+			}
+			
+			if(cache != null){
+				cache.put(packed, piece, i, features[i]);
+			}
+		}
+		return features;
+	}
+	
+	/**
+	 * Description: Gives a cached feature vector with the landing height of the given move. The cache
+	 * shares entries between mirrored positions and the landing height is the only feature that can 
+	 * differ between them, so it is taken from the move (copying the vector if it has to change)
+	 * 
+	 * @param cached
+	 * @param s
+	 * @param piece
+	 * @param move
+	 * @return
+	 */
+	private int[] landingHeight(int[] cached, State s, int piece, int[] move) {
+		if(cached == null || cached == FeatureCache.LOST){
+			return cached;
+		}
+		int landingHeight = Features.landingHeight(s.getTop()[move[State.SLOT]], 
+												   State.getpHeight()[piece][move[State.ORIENT]]);
+		if(cached[Features.LANDING_HEIGHT] == landingHeight){
+			return cached;
+		}
+		int[] features = cached.clone();
+		features[Features.LANDING_HEIGHT] = landingHeight;
+		return features;
+	}
+	
+	/**
+	 * Description: Sets the cache of feature vectors used when picking moves for Genes made only of 
+	 * feature heuristics. The cache can be shared between PlayerSkeletons and threads. Null turns it off
+	 * @param featureCache
+	 */
+	public void setFeatureCache(FeatureCache featureCache) {
+		this.featureCache = featureCache;
+	}
+	
+	/**
+	 * Description: Sets the engine used to compute feature vectors (see FeatureEngine). Engines are not 
+	 * thread-safe, so each thread's PlayerSkeleton needs its own. Null uses TestStates
+	 * @param featureEngine
+	 */
+	public void setFeatureEngine(FeatureEngine featureEngine) {
+		this.featureEngine = featureEngine;
+	}
+	
+	/**
+	 * Description: Gives the engine used to compute feature vectors, null when TestStates are used
+	 * @return
+	 */
+	public FeatureEngine getFeatureEngine() {
+		return featureEngine;
+	}
+	
+	/**
+	 * Description: Turns on integer-only scoring of feature vectors (see FixedPointScorer), used whenever
+	 * moves are picked from feature vectors, for one Gene (pickMove()) or for a batch (pickMoves() and 
+	 * LockstepGame). Null goes back to doubles
+	 * @param fixedPoint
+	 */
+	public void setFixedPointScorer(FixedPointScorer fixedPoint) {
+		this.fixedPoint = fixedPoint;
+	}
+	
+	/**
+	 * Description: Gives the fixed-point scorer, null when scoring with doubles
+	 * @return
+	 */
+	public FixedPointScorer getFixedPointScorer() {
+		return fixedPoint;
+	}
+	
+	/**
+	 * Description: Turns on branch-and-bound move picking (see BoundedMovePicker) for Genes made of 
+	 * feature heuristics. It computes its own features, so the feature cache, engine and fixed-point 
+	 * scorer are not used while it is set. Not thread-safe, each thread's PlayerSkeleton needs its own
+	 * @param boundedPicker
+	 */
+	public void setBoundedPicker(BoundedMovePicker boundedPicker) {
+		this.boundedPicker = boundedPicker;
+	}
+	
+	/**
+	 * Description: Gives the branch-and-bound move picker, null if it is off
+	 * @return
+	 */
+	public BoundedMovePicker getBoundedPicker() {
+		return boundedPicker;
+	}
+	
+	/**
+	 * Description: Turns on precomputed moves (see PolicyTable). They are used for the Gene the table was
+	 * built for, and the full search is still run when the position is not in the table. Null turns it
+	 * off
+	 * @param policyTable
+	 */
+	public void setPolicyTable(PolicyTable policyTable) {
+		this.policyTable = policyTable;
+	}
+	
+	/**
+	 * Description: Gives the table of precomputed moves, null if it is off
+	 * @return
+	 */
+	public PolicyTable getPolicyTable() {
+		return policyTable;
+	}
+	
+	/**
+	 * Description: Turns on tracing of a sample of the decisions (see DecisionTrace) for Genes made of 
+	 * feature heuristics. The trace can be shared between PlayerSkeletons and threads. Null turns it off
+	 * @param decisionTrace
+	 */
+	public void setDecisionTrace(DecisionTrace decisionTrace) {
+		this.decisionTrace = decisionTrace;
+	}
+	
+	/**
+	 * Description: Gives the decision trace, null if tracing is off
+	 * @return
+	 */
+	public DecisionTrace getDecisionTrace() {
+		return decisionTrace;
+	}
+	
+	/**
+	 * Description: Gives the gene this player plays with
+	 * @return
+	 */
+	public Gene getGene() {
+		return g;
+	}
+	
+	/**
+	 * Description: Gives the cache of feature vectors, null if none is set
+	 * @return
+	 */
+	public FeatureCache getFeatureCache() {
+		return featureCache;
+	}
 
 	/**
 	 * Description: Prints out the 2D board entered (For debugging purposes)
@@ -1129,14 +2245,73 @@ public class PlayerSkeleton {
 	 * @throws Exception
 	 */
 	public int playGame(Gene g) throws Exception{
-		State s = new State();		
-		
+		return playGame(g, new State());
+	}
+	
+	/**
+	 * Description: Plays a game without visualization using the given piece sequence, so that Genes can
+	 * be compared on the same game
+	 * 
+	 * @param g
+	 * @param pieces
+	 * @return
+	 * @throws Exception
+	 */
+	public int playGame(Gene g, PieceSource pieces) throws Exception{
+		return playGame(g, new State(pieces));
+	}
+	
+	/**
+	 * Description: Plays a game without visualization on the given State, which is left as the game 
+	 * ended (e.g. for its turn number)
+	 * 
+	 * @param g
+	 * @param s
+	 * @return
+	 * @throws Exception
+	 */
+	public int playGame(Gene g, State s) throws Exception{
 		while(!s.hasLost()) {
 			s.makeMove(pickMove(s,s.legalMoves(), g));
 		}
 		return s.getRowsCleared();
 	}
 	
+	/**
+	 * Description: Plays a game without visualization on the given State, saving a checkpoint of it (see
+	 * GameCheckpoint) every given number of pieces, whenever requestCheckpoint() is called and when the
+	 * game ends. A game resumed from the checkpoint ends exactly as this one would if its pieces come 
+	 * from a SeededPieceSource
+	 * 
+	 * @param g
+	 * @param s a new State, or the State of a GameCheckpoint to carry on from
+	 * @param checkpoint
+	 * @param every number of pieces between two checkpoints, 0 or less for none but the requested ones 
+	 * and the last
+	 * @return
+	 * @throws Exception
+	 */
+	public int playGame(Gene g, State s, Path checkpoint, int every) throws Exception{
+		double[] weights = g.getWeightArray();
+		while(!s.hasLost()) {
+			s.makeMove(pickMove(s,s.legalMoves(), g));
+			if((every > 0 && s.getTurnNumber() % every == 0) || checkpointRequested){
+				checkpointRequested = false;
+				GameCheckpoint.save(checkpoint, s, weights);
+			}
+		}
+		GameCheckpoint.save(checkpoint, s, weights);
+		return s.getRowsCleared();
+	}
+	
+	/**
+	 * Description: Asks a game played with checkpoints (see playGame) to save one after its current 
+	 * move. Can be called from any thread
+	 */
+	public void requestCheckpoint(){
+		checkpointRequested = true;
+	}
+	
 	public static void main(String[] args) throws Exception {
 		
 		//initialization of new game
@@ -1144,6 +2319,12 @@ public class PlayerSkeleton {
 		new TFrame(s);
 		
 		PlayerSkeleton p = new PlayerSkeleton();
+		
+		//precomputed moves, built with PolicyTableBuilder
+		String policy = System.getProperty("tetris.policy");
+		if(policy != null){
+			p.setPolicyTable(PolicyTable.open(Paths.get(policy)));
+		}
 				
 		int iteration = 0;
 		
@@ -1160,6 +2341,9 @@ public class PlayerSkeleton {
 
 		}
 		System.out.println("You have completed " + s.getRowsCleared() + " rows.");		
+		if(p.getPolicyTable() != null){
+			System.out.println(p.getPolicyTable());
+		}
 	}
 	
 }
@@ -0,0 +1,271 @@
+package tetris;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Precomputed moves of one Gene, looked up instead of evaluating every legal move. A position is
+ * compressed to a key made of the piece, the height differences of adjacent columns (clamped), one
+ * hole flag per column and the highest column. Keys are stored in canonical mirrored form (see
+ * MoveTable), so a position and its mirror image share one entry.
+ *
+ * The table is built offline by PolicyTableBuilder and kept in a file that is memory-mapped read-only,
+ * so it can be shared by every thread. It is an open-addressing hash table of longs:
+ *
+ *   header: int MAGIC, int VERSION, double[Features.COUNT] feature weights, int capacity, int entries
+ *   slots:  capacity longs, 0 when empty, else OCCUPIED | move << MOVE_SHIFT | key
+ *
+ * The key drops most of the board, so a hit is the move the Gene usually made from such positions, not
+ * always the move a full search would make. Keys that led to different moves while building are left
+ * out of the table.
+ */
+public class PolicyTable {
+
+	public static final int MAGIC = 0x54504f4c; // "TPOL"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 4 + 4 + 8 * Features.COUNT + 4 + 4;
+	private static final long OCCUPIED = 1L << 63;
+	private static final long MIRRORED = 1L << 62; // returned by key(), never stored
+	private static final int MOVE_SHIFT = 54;
+	private static final long KEY_MASK = (1L << MOVE_SHIFT) - 1;
+
+	private static final int CLAMP = 4; // adjacent height differences are kept in [-CLAMP, CLAMP]
+	private static final int DIFF_BITS = 4;
+	private static final int HOLES_SHIFT = 8;
+	private static final int DIFFS_SHIFT = HOLES_SHIFT + State.COLS;
+
+	private final ByteBuffer slots;
+	private final int capacity;
+	private final int entries;
+	private final double[] featureWeights = new double[Features.COUNT];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private PolicyTable(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a version " + VERSION + " policy table");
+		}
+		for (int i = 0; i < Features.COUNT; i++) {
+			featureWeights[i] = buffer.getDouble(8 + 8 * i);
+		}
+		capacity = buffer.getInt(HEADER_BYTES - 8);
+		entries = buffer.getInt(HEADER_BYTES - 4);
+		if (Integer.bitCount(capacity) != 1 || buffer.capacity() != HEADER_BYTES + 8L * capacity) {
+			throw new IOException("Corrupt policy table");
+		}
+		buffer.position(HEADER_BYTES);
+		slots = buffer.slice();
+	}
+
+	/**
+	 * Description: Maps a policy table file read-only
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static PolicyTable open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new PolicyTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Description: Writes a policy table file from canonical keys (see key()) and their moves, at most
+	 * half full
+	 * @param out
+	 * @param featureWeights weights of the Gene the moves come from
+	 * @param moves
+	 * @throws IOException
+	 */
+	public static void write(OutputStream out, double[] featureWeights, Map<Long, Integer> moves)
+			throws IOException {
+		int capacity = Integer.highestOneBit(Math.max(1, moves.size()) * 2 - 1) << 1;
+		long[] table = new long[capacity];
+		for (Map.Entry<Long, Integer> e : moves.entrySet()) {
+			long key = e.getKey();
+			int i = slot(key, capacity);
+			while (table[i] != 0) {
+				i = (i + 1) & (capacity - 1);
+			}
+			table[i] = OCCUPIED | (long) e.getValue() << MOVE_SHIFT | key;
+		}
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		for (int i = 0; i < Features.COUNT; i++) {
+			data.writeDouble(featureWeights[i]);
+		}
+		data.writeInt(capacity);
+		data.writeInt(moves.size());
+		for (long slot : table) {
+			data.writeLong(slot);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Description: Writes a policy table file through a temporary file, so a reader never maps a half
+	 * written table
+	 * @param path
+	 * @param featureWeights
+	 * @param moves
+	 * @throws IOException
+	 */
+	public static void write(Path path, double[] featureWeights, Map<Long, Integer> moves) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+			write(out, featureWeights, moves);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Description: Gives the compressed key of a position in canonical mirrored form, with the MIRRORED
+	 * bit set when the canonical form is the mirror image. Moves of a mirrored key are moves of the
+	 * mirrored piece (see MoveTable.mirrorMove())
+	 * @param field
+	 * @param top
+	 * @param piece
+	 * @return
+	 */
+	public static long key(int[][] field, int[] top, int piece) {
+		int maxHeight = 0;
+		int holes = 0;
+		int mirrorHoles = 0;
+		for (int c = 0; c < State.COLS; c++) {
+			maxHeight = Math.max(maxHeight, top[c]);
+			for (int r = top[c] - 2; r >= 0; r--) {
+				if (field[r][c] == 0) {
+					holes |= 1 << c;
+					mirrorHoles |= 1 << (State.COLS - 1 - c);
+					break;
+				}
+			}
+		}
+
+		long diffs = 0;
+		long mirrorDiffs = 0;
+		for (int c = 0; c < State.COLS - 1; c++) {
+			int diff = Math.max(-CLAMP, Math.min(CLAMP, top[c + 1] - top[c]));
+			diffs |= (long) (diff + CLAMP) << (DIFF_BITS * c);
+			mirrorDiffs |= (long) (CLAMP - diff) << (DIFF_BITS * (State.COLS - 2 - c));
+		}
+
+		long key = (long) piece | maxHeight << 3 | (long) holes << HOLES_SHIFT | diffs << DIFFS_SHIFT;
+		long mirrorKey = (long) MoveTable.mirrorPiece(piece) | maxHeight << 3
+						| (long) mirrorHoles << HOLES_SHIFT | mirrorDiffs << DIFFS_SHIFT;
+		return mirrorKey < key ? MIRRORED | mirrorKey : key;
+	}
+
+	/**
+	 * Description: Gives the stored key of a key() result
+	 */
+	public static long canonical(long key) {
+		return key & KEY_MASK;
+	}
+
+	/**
+	 * Description: Translates a move of the position into the canonical form of its key() result
+	 * @param key
+	 * @param piece the piece of the position
+	 * @param move
+	 * @return
+	 */
+	public static int canonicalMove(long key, int piece, int move) {
+		return (key & MIRRORED) == 0 ? move : MoveTable.mirrorMove(piece, move);
+	}
+
+	/**
+	 * Description: Tells whether the table was built for a Gene with these weights
+	 * @param featureWeights
+	 * @return
+	 */
+	public boolean matches(double[] featureWeights) {
+		return Arrays.equals(this.featureWeights, featureWeights);
+	}
+
+	/**
+	 * Description: Gives the stored move of the position, or -1 if there is none or it would lose the
+	 * game
+	 * @param field
+	 * @param top
+	 * @param piece
+	 * @param legalMoves the legal moves of the piece, in State.legalMoves() order
+	 * @return
+	 */
+	public int lookup(int[][] field, int[] top, int piece, int[][] legalMoves) {
+		long key = key(field, top, piece);
+		long canonical = canonical(key);
+		for (int i = slot(canonical, capacity); ; i = (i + 1) & (capacity - 1)) {
+			long entry = slots.getLong(8 * i);
+			if (entry == 0) {
+				break;
+			}
+			if ((entry & KEY_MASK) == canonical) {
+				int stored = (int) (entry >>> MOVE_SHIFT) & 0x3f;
+				if ((key & MIRRORED) != 0) {
+					stored = MoveTable.mirrorMove(MoveTable.mirrorPiece(piece), stored);
+				}
+				if (stored < legalMoves.length && !loses(top, piece, legalMoves[stored])) {
+					hits.increment();
+					return stored;
+				}
+				break;
+			}
+		}
+		misses.increment();
+		return -1;
+	}
+
+	private static boolean loses(int[] top, int piece, int[] move) {
+		int orient = move[State.ORIENT];
+		int slot = move[State.SLOT];
+		int height = 0;
+		for (int c = 0; c < State.getpWidth()[piece][orient]; c++) {
+			height = Math.max(height, top[slot + c] - State.getpBottom()[piece][orient][c]);
+		}
+		return height + State.getpHeight()[piece][orient] >= State.ROWS;
+	}
+
+	private static int slot(long key, int capacity) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32)) & (capacity - 1);
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return "PolicyTable[entries=" + entries + ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+	}
+}
@@ -0,0 +1,95 @@
+package tetris;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a PolicyTable offline: plays seeded games with the default Gene of PlayerSkeleton, records the
+ * move picked by the full search for the key of every position, and writes the keys that always got the
+ * same move.
+ *
+ * Usage: PolicyTableBuilder <output file> [games] [pieces per game] [first seed]
+ */
+public class PolicyTableBuilder {
+
+	private static final int AMBIGUOUS = -1;
+
+	private final PlayerSkeleton player = new PlayerSkeleton();
+	private final Map<Long, Integer> moves = new HashMap<Long, Integer>();
+	private long positions;
+	private int ambiguous;
+
+	public PolicyTableBuilder() {
+		player.setBoundedPicker(new BoundedMovePicker());
+	}
+
+	/**
+	 * Description: Plays one seeded game of at most maxPieces pieces and records its decisions
+	 * @param seed
+	 * @param maxPieces
+	 * @return rows cleared
+	 * @throws Exception
+	 */
+	public int record(long seed, int maxPieces) throws Exception {
+		State s = new State(new SeededPieceSource(seed));
+		PlayerSkeleton.Gene gene = player.getGene();
+		for (int i = 0; i < maxPieces && !s.hasLost(); i++) {
+			int piece = s.getNextPiece();
+			int move = player.pickMove(s, s.legalMoves(), gene);
+			long key = PolicyTable.key(s.getField(), s.getTop(), piece);
+			int canonicalMove = PolicyTable.canonicalMove(key, piece, move);
+
+			Integer known = moves.get(PolicyTable.canonical(key));
+			if (known == null) {
+				moves.put(PolicyTable.canonical(key), canonicalMove);
+			} else if (known != AMBIGUOUS && known != canonicalMove) {
+				moves.put(PolicyTable.canonical(key), AMBIGUOUS);
+				ambiguous++;
+			}
+			positions++;
+			s.makeMove(move);
+		}
+		return s.getRowsCleared();
+	}
+
+	/**
+	 * Description: Writes the recorded keys that always got the same move
+	 * @param path
+	 * @throws Exception
+	 */
+	public void write(Path path) throws Exception {
+		Map<Long, Integer> unambiguous = new HashMap<Long, Integer>();
+		for (Map.Entry<Long, Integer> e : moves.entrySet()) {
+			if (e.getValue() != AMBIGUOUS) {
+				unambiguous.put(e.getKey(), e.getValue());
+			}
+		}
+		PolicyTable.write(path, player.getGene().getFeatureWeights(), unambiguous);
+	}
+
+	@Override
+	public String toString() {
+		return "PolicyTableBuilder[positions=" + positions + ", keys=" + moves.size() + ", ambiguous="
+				+ ambiguous + "]";
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: PolicyTableBuilder <output file> [games] [pieces per game] [first seed]");
+			System.exit(1);
+		}
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int maxPieces = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		long firstSeed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+		PolicyTableBuilder builder = new PolicyTableBuilder();
+		for (int j = 0; j < games; j++) {
+			int rows = builder.record(firstSeed + j, maxPieces);
+			System.out.println("Game " + j + " (seed " + (firstSeed + j) + "): " + rows + " rows. " + builder);
+		}
+		builder.write(Paths.get(args[0]));
+		System.out.println("Wrote " + args[0]);
+	}
+}
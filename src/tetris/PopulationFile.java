@@ -0,0 +1,335 @@
+package tetris;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A population of Genes as plain values: the heuristic names, and for each Gene its weights, fitness,
+ * number of games the fitness comes from and the seed id of those games (-1 for unseeded games). It is
+ * read from and written to two formats:
+ *
+ * Text, as written by GenePool.writeToFile(): a header line of names separated by " | " and ending with
+ * "Fitness", then one line per Gene of its weights and fitness. Games and seed ids are not kept.
+ *
+ * Binary, version 1, read and written whole through a plain channel rather than memory-mapped: a
+ * mapping stays live until it is collected, and on Windows a mapped file cannot be replaced by the
+ * rename of writeBinary() (all numbers big-endian):
+ *
+ *   header:  int MAGIC, int VERSION, int heuristics, int genes, int header bytes,
+ *            per heuristic a short length and its UTF-8 name, zero padding to a multiple of 8
+ *   records: per Gene, double[heuristics] weights, long fitness, long seed id, int games, int 0
+ *
+ * Usage as a converter: PopulationFile <input> <output>. The input format is detected, the output is
+ * the other one.
+ */
+public class PopulationFile {
+
+	public static final int MAGIC = 0x54504f50; // "TPOP"
+	public static final int VERSION = 1;
+	public static final long UNSEEDED = -1;
+
+	private static final String FITNESS = "Fitness";
+	private static final String SEPARATOR = " | ";
+
+	private final String[] names;
+	private final double[][] weights;
+	private final long[] fitness;
+	private final int[] games;
+	private final long[] seedIds;
+
+	/**
+	 * Constructor for PopulationFile
+	 * @param names heuristic names, in weight order
+	 * @param size number of Genes
+	 */
+	public PopulationFile(String[] names, int size) {
+		this.names = names.clone();
+		this.weights = new double[size][];
+		this.fitness = new long[size];
+		this.games = new int[size];
+		this.seedIds = new long[size];
+		Arrays.fill(seedIds, UNSEEDED);
+	}
+
+	public String[] getNames() {
+		return names.clone();
+	}
+
+	public int size() {
+		return weights.length;
+	}
+
+	public double[] getWeights(int i) {
+		return weights[i];
+	}
+
+	public long getFitness(int i) {
+		return fitness[i];
+	}
+
+	public int getGames(int i) {
+		return games[i];
+	}
+
+	public long getSeedId(int i) {
+		return seedIds[i];
+	}
+
+	/**
+	 * Description: Gives, for each of the expected heuristic names, the position of its weight in the
+	 * weights of a Gene. The file must hold exactly those heuristics, in any order
+	 * @param expected
+	 * @return
+	 * @throws IOException if a heuristic is missing or the file holds others
+	 */
+	public int[] columns(String[] expected) throws IOException {
+		int[] columns = new int[expected.length];
+		boolean match = names.length == expected.length;
+		for (int h = 0; h < expected.length; h++) {
+			columns[h] = Arrays.asList(names).indexOf(expected[h]);
+			match &= columns[h] >= 0;
+		}
+		if (!match) {
+			throw new IOException("The file holds the heuristics " + Arrays.toString(names) + ", expected "
+								  + Arrays.toString(expected));
+		}
+		return columns;
+	}
+
+	/**
+	 * Description: Sets the Gene at position i
+	 * @param i
+	 * @param weights one per heuristic name
+	 * @param fitness
+	 * @param games
+	 * @param seedId
+	 */
+	public void set(int i, double[] weights, long fitness, int games, long seedId) {
+		if (weights.length != names.length) {
+			throw new IllegalArgumentException("Expected " + names.length + " weights, got " + weights.length);
+		}
+		this.weights[i] = weights.clone();
+		this.fitness[i] = fitness;
+		this.games[i] = games;
+		this.seedIds[i] = seedId;
+	}
+
+	/**
+	 * Description: Tells whether the file starts like a binary population file
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBinary(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < 4) {
+				return false;
+			}
+			// a read may return fewer bytes than asked for
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+			}
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Description: Reads a population file of either format
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static PopulationFile read(Path path) throws IOException {
+		return isBinary(path) ? readBinary(path) : readText(path);
+	}
+
+	/**
+	 * Description: Reads a binary population file
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static PopulationFile readBinary(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too large for a population file");
+			}
+			// read whole rather than mapped, so that the file can be replaced while the population is used
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			if (buffer.remaining() < 5 * 4 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException(path + " is not a version " + VERSION + " population file");
+			}
+			int heuristics = buffer.getInt();
+			int size = buffer.getInt();
+			int headerBytes = buffer.getInt();
+			if (buffer.limit() != headerBytes + (long) size * recordBytes(heuristics)) {
+				throw new IOException(path + " is truncated or corrupt");
+			}
+
+			String[] names = new String[heuristics];
+			for (int h = 0; h < heuristics; h++) {
+				byte[] name = new byte[buffer.getShort()];
+				buffer.get(name);
+				names[h] = new String(name, StandardCharsets.UTF_8);
+			}
+
+			PopulationFile population = new PopulationFile(names, size);
+			int at = headerBytes;
+			for (int i = 0; i < size; i++) {
+				double[] w = new double[heuristics];
+				for (int h = 0; h < heuristics; h++, at += 8) {
+					w[h] = buffer.getDouble(at);
+				}
+				population.weights[i] = w;
+				population.fitness[i] = buffer.getLong(at);
+				population.seedIds[i] = buffer.getLong(at + 8);
+				population.games[i] = buffer.getInt(at + 16);
+				at += 24;
+			}
+			return population;
+		}
+	}
+
+	/**
+	 * Description: Writes the population in the binary format. The file is written under a temporary
+	 * name and then renamed, so readers never see a half written population
+	 * @param path
+	 * @throws IOException
+	 */
+	public void writeBinary(Path path) throws IOException {
+		byte[][] encoded = new byte[names.length][];
+		int headerBytes = 5 * 4;
+		for (int h = 0; h < names.length; h++) {
+			encoded[h] = names[h].getBytes(StandardCharsets.UTF_8);
+			headerBytes += 2 + encoded[h].length;
+		}
+		headerBytes = (headerBytes + 7) & ~7;
+		long length = headerBytes + (long) size() * recordBytes(names.length);
+
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) length);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(names.length).putInt(size()).putInt(headerBytes);
+			for (byte[] name : encoded) {
+				buffer.putShort((short) name.length).put(name);
+			}
+			int at = headerBytes;
+			for (int i = 0; i < size(); i++) {
+				for (double w : weights[i]) {
+					buffer.putDouble(at, w);
+					at += 8;
+				}
+				buffer.putLong(at, fitness[i]).putLong(at + 8, seedIds[i]).putInt(at + 16, games[i]);
+				at += 24;
+			}
+			buffer.clear();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Description: Reads a text population file. Games are 0 and seed ids UNSEEDED, the text format
+	 * does not keep them
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static PopulationFile readText(Path path) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			if (header == null) {
+				throw new IOException(path + " is empty");
+			}
+			ArrayList<String> names = new ArrayList<String>();
+			for (String name : header.split("\\|")) {
+				names.add(name.trim());
+			}
+			if (names.get(names.size() - 1).equals(FITNESS)) {
+				names.remove(names.size() - 1);
+			}
+
+			ArrayList<double[]> weights = new ArrayList<double[]>();
+			ArrayList<Long> fitness = new ArrayList<Long>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] tokens = line.trim().split("\\s+");
+				if (tokens.length < names.size()) {
+					continue; // blank line
+				}
+				double[] w = new double[names.size()];
+				for (int h = 0; h < w.length; h++) {
+					w[h] = Double.parseDouble(tokens[h]);
+				}
+				weights.add(w);
+				fitness.add(tokens.length > w.length ? Long.parseLong(tokens[w.length]) : 0);
+			}
+
+			PopulationFile population = new PopulationFile(names.toArray(new String[0]), weights.size());
+			for (int i = 0; i < weights.size(); i++) {
+				population.weights[i] = weights.get(i);
+				population.fitness[i] = fitness.get(i);
+			}
+			return population;
+		}
+	}
+
+	/**
+	 * Description: Writes the population in the text format of GenePool.writeToFile()
+	 * @param path
+	 * @throws IOException
+	 */
+	public void writeText(Path path) throws IOException {
+		try (BufferedWriter bw = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			bw.write(String.join(SEPARATOR, names) + SEPARATOR + FITNESS);
+			bw.newLine();
+			for (int i = 0; i < size(); i++) {
+				for (double w : weights[i]) {
+					bw.write(w + " ");
+				}
+				bw.write(fitness[i] + "");
+				bw.newLine();
+			}
+		}
+	}
+
+	private static int recordBytes(int heuristics) {
+		return 8 * heuristics + 8 + 8 + 4 + 4;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: PopulationFile <input> <output>");
+			System.exit(1);
+		}
+		Path in = Paths.get(args[0]);
+		Path out = Paths.get(args[1]);
+		long start = System.nanoTime();
+		PopulationFile population = read(in);
+		if (isBinary(in)) {
+			population.writeText(out);
+		} else {
+			population.writeBinary(out);
+		}
+		System.out.println("Converted " + population.size() + " genes from " + in + " to " + out + " in "
+						   + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
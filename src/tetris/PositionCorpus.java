@@ -0,0 +1,295 @@
+package tetris;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Board positions taken from seeded games of the default Gene, kept in a file so that benchmarks and
+ * the differential tests all run on the same realistic boards. Positions are sorted into bands by the
+ * height of their stack (HEIGHT_BANDS rows per band), and the generator samples the same number from
+ * every band. The default Gene seldom builds a high stack, so some games are played with noise: each
+ * move is a random legal move with a probability that grows from game to game (see noise()). Those games
+ * supply the tall, holed and near-death boards.
+ *
+ * Each position keeps the seed and turn it was taken at. Its State (see toState()) carries on that game
+ * with the same pieces.
+ *
+ * File layout (big-endian): int MAGIC, int VERSION, int ROWS, int COLS, int positions, then per position
+ * long seed, int turn, byte next piece, byte stack height, short[ROWS] row masks (bit c is column c).
+ *
+ * The benchmarks (HotPathBenchmark) and DifferentialHarness read a corpus given with
+ * -Dtetris.positions=<file>.
+ *
+ * Usage: PositionCorpus <output file> [positions per band] [first seed] writes a corpus.
+ */
+public class PositionCorpus {
+
+	public static final String PROPERTY = "tetris.positions";
+	public static final int MAGIC = 0x54504f53; // "TPOS"
+	public static final int VERSION = 1;
+	public static final int HEIGHT_BANDS = 4;	// rows of stack height per band
+	public static final int BANDS = (State.ROWS - 2) / HEIGHT_BANDS + 1; // stacks are at most ROWS - 1 high
+
+	private static final int STRIDE = 5;			// turns between two samples of a game, on average
+	private static final int MAX_GAMES = 10000;	// games played at most to fill the bands
+
+	/**
+	 * One board and the piece to place on it
+	 */
+	public static final class Position {
+		private final long seed;
+		private final int turn;
+		private final int piece;
+		private final int[] rows;
+
+		Position(long seed, int turn, int piece, int[] rows) {
+			this.seed = seed;
+			this.turn = turn;
+			this.piece = piece;
+			this.rows = rows;
+		}
+
+		public long getSeed() {
+			return seed;
+		}
+
+		public int getTurn() {
+			return turn;
+		}
+
+		public int getPiece() {
+			return piece;
+		}
+
+		/**
+		 * Description: Gives the height of the stack, i.e. the highest filled row + 1
+		 * @return
+		 */
+		public int getHeight() {
+			for (int r = State.ROWS - 1; r >= 0; r--) {
+				if (rows[r] != 0) {
+					return r + 1;
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Description: Gives the band of the stack height, 0 to BANDS - 1
+		 * @return
+		 */
+		public int getBand() {
+			return band(getHeight());
+		}
+
+		/**
+		 * Description: Gives a new board of the position (1 means filled)
+		 * @return
+		 */
+		public int[][] getField() {
+			int[][] field = new int[State.ROWS][State.COLS];
+			for (int r = 0; r < State.ROWS; r++) {
+				for (int c = 0; c < State.COLS; c++) {
+					field[r][c] = rows[r] >>> c & 1;
+				}
+			}
+			return field;
+		}
+
+		/**
+		 * Description: Gives a new State at this position, carrying on the seeded game it comes from
+		 * @return
+		 */
+		public State toState() {
+			return State.at(getField(), turn, piece, new SeededPieceSource(seed));
+		}
+	}
+
+	private final List<Position> positions;
+
+	private PositionCorpus(List<Position> positions) {
+		this.positions = positions;
+	}
+
+	public List<Position> getPositions() {
+		return Collections.unmodifiableList(positions);
+	}
+
+	public int size() {
+		return positions.size();
+	}
+
+	/**
+	 * Description: Reads the corpus named by the tetris.positions system property, or gives null if it
+	 * is not set
+	 * @return
+	 * @throws IOException
+	 */
+	public static PositionCorpus fromSystemProperty() throws IOException {
+		String path = System.getProperty(PROPERTY);
+		return path == null ? null : read(Paths.get(path));
+	}
+
+	/**
+	 * Description: Gives the band of a stack height
+	 * @param height
+	 * @return
+	 */
+	public static int band(int height) {
+		return Math.min(BANDS - 1, Math.max(0, height - 1) / HEIGHT_BANDS);
+	}
+
+	/**
+	 * Description: Gives the chance of a random move in game g of the generator: none in every fourth
+	 * game, so that plain play of the default Gene is always sampled, and up to 0.5 in the others
+	 * @param game
+	 * @return
+	 */
+	static double noise(int game) {
+		return game % 4 == 0 ? 0 : Math.min(0.5, 0.02 * (game / 4 + 1));
+	}
+
+	/**
+	 * Description: Plays seeded games of the default Gene from firstSeed on until every band holds
+	 * perBand positions (or MAX_GAMES games were played)
+	 * @param perBand
+	 * @param firstSeed
+	 * @return
+	 * @throws Exception
+	 */
+	public static PositionCorpus generate(int perBand, long firstSeed) throws Exception {
+		PlayerSkeleton p = new PlayerSkeleton();
+		p.setBoundedPicker(new BoundedMovePicker());
+		int[] counts = new int[BANDS];
+		int full = 0;
+		List<Position> positions = new ArrayList<Position>();
+
+		for (int game = 0; game < MAX_GAMES && full < BANDS; game++) {
+			long seed = firstSeed + game;
+			Random random = new Random(seed);
+			double noise = noise(game);
+			State s = new State(new SeededPieceSource(seed));
+			int next = random.nextInt(STRIDE);
+			// a plain game may never end, so it is cut short
+			int maxTurns = noise == 0 ? 100000 : Integer.MAX_VALUE;
+
+			while (!s.hasLost() && s.getTurnNumber() < maxTurns && full < BANDS) {
+				if (s.getTurnNumber() == next) {
+					next += 1 + random.nextInt(2 * STRIDE - 1);
+					int[] rows = new int[State.ROWS];
+					for (int r = 0; r < State.ROWS; r++) {
+						rows[r] = RowTables.mask(s.getField()[r]);
+					}
+					Position position = new Position(seed, s.getTurnNumber(), s.getNextPiece(), rows);
+					int band = position.getBand();
+					if (counts[band] < perBand) {
+						positions.add(position);
+						if (++counts[band] == perBand) {
+							full++;
+						}
+					}
+				}
+				int move = random.nextDouble() < noise ? random.nextInt(s.legalMoves().length)
+						: p.pickMove(s, s.legalMoves(), p.getGene());
+				s.makeMove(move);
+			}
+		}
+		return new PositionCorpus(positions);
+	}
+
+	/**
+	 * Description: Writes the corpus under a temporary name and renames it
+	 * @param path
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (OutputStream file = Files.newOutputStream(tmp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(State.ROWS);
+			out.writeInt(State.COLS);
+			out.writeInt(positions.size());
+			for (Position position : positions) {
+				out.writeLong(position.seed);
+				out.writeInt(position.turn);
+				out.writeByte(position.piece);
+				out.writeByte(position.getHeight());
+				for (int row : position.rows) {
+					out.writeShort(row);
+				}
+			}
+			out.flush();
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Description: Reads a corpus file
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static PositionCorpus read(Path path) throws IOException {
+		try (InputStream file = Files.newInputStream(path)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(path + " is not a version " + VERSION + " position corpus");
+			}
+			if (in.readInt() != State.ROWS || in.readInt() != State.COLS) {
+				throw new IOException(path + " holds boards of another size");
+			}
+			int count = in.readInt();
+			List<Position> positions = new ArrayList<Position>(count);
+			for (int i = 0; i < count; i++) {
+				long seed = in.readLong();
+				int turn = in.readInt();
+				int piece = in.readByte();
+				in.readByte(); // stack height, for tools that do not decode the rows
+				int[] rows = new int[State.ROWS];
+				for (int r = 0; r < State.ROWS; r++) {
+					rows[r] = in.readShort() & 0xffff;
+				}
+				positions.add(new Position(seed, turn, piece, rows));
+			}
+			return new PositionCorpus(positions);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: PositionCorpus <output file> [positions per band] [first seed]");
+			System.exit(1);
+		}
+		int perBand = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		long firstSeed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		long start = System.nanoTime();
+		PositionCorpus corpus = generate(perBand, firstSeed);
+		corpus.write(Paths.get(args[0]));
+
+		int[] counts = new int[BANDS];
+		for (Position position : corpus.positions) {
+			counts[position.getBand()]++;
+		}
+		System.out.println("Wrote " + corpus.size() + " positions in " + (System.nanoTime() - start) / 1000000
+						   + " ms");
+		for (int b = 0; b < BANDS; b++) {
+			System.out.println("  stack height " + (b == 0 ? 0 : b * HEIGHT_BANDS + 1) + "-" + (b + 1) * HEIGHT_BANDS
+							   + ": " + counts[b]);
+		}
+	}
+}
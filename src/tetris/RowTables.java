@@ -0,0 +1,47 @@
+package tetris;
+
+/**
+ * Lookup tables over the 2^COLS possible occupancy patterns of a row. A row is packed as a mask where
+ * bit c is set when column c is filled.
+ */
+public final class RowTables {
+
+	public static final int FULL = (1 << State.COLS) - 1;
+
+	// number of filled/empty changes along the row, walls count as filled
+	public static final byte[] ROW_TRANSITIONS = new byte[FULL + 1];
+
+	// number of empty cells in the row (see Heuristic.emptySpaces())
+	public static final byte[] EMPTY_CELLS = new byte[FULL + 1];
+
+	// the row seen in a mirror - column c becomes column COLS - 1 - c
+	public static final short[] MIRROR = new short[FULL + 1];
+
+	static {
+		for (int mask = 0; mask <= FULL; mask++) {
+			// walls on both sides, shifted so column c is bit c + 1
+			int walled = mask << 1 | 1 | 1 << (State.COLS + 1);
+			ROW_TRANSITIONS[mask] = (byte) Integer.bitCount((walled ^ walled >>> 1) & (FULL << 1 | 1));
+			EMPTY_CELLS[mask] = (byte) (State.COLS - Integer.bitCount(mask));
+			MIRROR[mask] = (short) (Integer.reverse(mask) >>> (32 - State.COLS));
+		}
+	}
+
+	private RowTables() {
+	}
+
+	/**
+	 * Description: Packs a row of a board (non 0 means filled) into a mask
+	 * @param row
+	 * @return
+	 */
+	public static int mask(int[] row) {
+		int mask = 0;
+		for (int c = 0; c < State.COLS; c++) {
+			if (row[c] != 0) {
+				mask |= 1 << c;
+			}
+		}
+		return mask;
+	}
+}
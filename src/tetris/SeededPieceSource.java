@@ -0,0 +1,28 @@
+package tetris;
+
+/**
+ * Deterministic piece sequence derived from a seed. Games created with the same seed see exactly the
+ * same pieces, which lets Genes be compared on identical games.
+ */
+public class SeededPieceSource implements PieceSource {
+
+	private final long seed;
+
+	public SeededPieceSource(long seed) {
+		this.seed = seed;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public int pieceAt(int turn) {
+		// splitmix64 finalizer over (seed, turn) - every turn is independent of the ones before it
+		long z = seed + (turn + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (int) ((z >>> 1) % State.N_PIECES);
+	}
+}
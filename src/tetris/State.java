@@ -1,6 +1,10 @@
 package tetris;
 
 import java.awt.Color;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 public class State {
 	public static final int COLS = 10;
@@ -21,10 +25,15 @@ public class State {
 	// top row+1 of each column
 	// 0 means empty
 	private int[] top = new int[COLS];
+	// filled cells of each column - bit r is set when field[r][c] is filled
+	private int[] colMask = new int[COLS];
 
 	// number of next piece
 	protected int nextPiece;
 
+	// where pieces come from - null means Math.random()
+	private PieceSource pieces;
+
 	// all legal moves - first index is piece type - then a list of 2-length
 	// arrays
 	protected static int[][][] legalMoves = new int[N_PIECES][][];
@@ -131,8 +140,100 @@ public class State {
 
 	}
 
+	// constructor - pieces are dealt by the given source instead of at random
+	public State(PieceSource pieces) {
+		this.pieces = pieces;
+		nextPiece = randomPiece();
+	}
+
+	// copy constructor - the copy continues the same game (and piece source)
+	// independently of the original
+	public State(State s) {
+		lost = s.lost;
+		turn = s.turn;
+		cleared = s.cleared;
+		for (int r = 0; r < ROWS; r++) {
+			System.arraycopy(s.field[r], 0, field[r], 0, COLS);
+		}
+		System.arraycopy(s.top, 0, top, 0, COLS);
+		System.arraycopy(s.colMask, 0, colMask, 0, COLS);
+		nextPiece = s.nextPiece;
+		pieces = s.pieces;
+	}
+
+	public PieceSource getPieceSource() {
+		return pieces;
+	}
+
+	// replaces the next piece, e.g. with the recorded piece of a replayed game
+	void setNextPiece(int piece) {
+		nextPiece = piece;
+	}
+
+	// size of a snapshot written by writeSnapshot()
+	static final int SNAPSHOT_BYTES = 1 + 3 * 4 + ROWS * COLS * 4;
+
+	// writes everything needed to continue the game except the piece source:
+	// lost, turn, cleared, next piece and every cell of the field
+	void writeSnapshot(DataOutput out) throws IOException {
+		out.writeBoolean(lost);
+		out.writeInt(turn);
+		out.writeInt(cleared);
+		out.writeInt(nextPiece);
+		for (int r = 0; r < ROWS; r++) {
+			for (int c = 0; c < COLS; c++) {
+				out.writeInt(field[r][c]);
+			}
+		}
+	}
+
+	// restores a snapshot of writeSnapshot() - the piece source is kept
+	void readSnapshot(DataInput in) throws IOException {
+		lost = in.readBoolean();
+		turn = in.readInt();
+		cleared = in.readInt();
+		nextPiece = in.readInt();
+		for (int r = 0; r < ROWS; r++) {
+			for (int c = 0; c < COLS; c++) {
+				field[r][c] = in.readInt();
+			}
+		}
+		fieldChanged();
+	}
+
+	// a game that has not lost, at the given turn of the pieces with the given
+	// next piece on a copy of the field (non 0 means filled) - no rows cleared yet
+	static State at(int[][] field, int turn, int piece, PieceSource pieces) {
+		State s = new State(pieces);
+		s.turn = turn;
+		s.nextPiece = piece;
+		for (int r = 0; r < ROWS; r++) {
+			System.arraycopy(field[r], 0, s.field[r], 0, COLS);
+		}
+		s.fieldChanged();
+		return s;
+	}
+
+	// recomputes the column masks and tops from the field
+	private void fieldChanged() {
+		Arrays.fill(colMask, 0);
+		for (int r = 0; r < ROWS; r++) {
+			for (int c = 0; c < COLS; c++) {
+				if (field[r][c] != 0) {
+					colMask[c] |= 1 << r;
+				}
+			}
+		}
+		for (int c = 0; c < COLS; c++) {
+			top[c] = 32 - Integer.numberOfLeadingZeros(colMask[c]);
+		}
+	}
+
 	// random integer, returns 0-6
 	private int randomPiece() {
+		if (pieces != null) {
+			return pieces.pieceAt(turn);
+		}
 		return (int)(Math.random()*N_PIECES);		
 	}
 
@@ -176,6 +277,8 @@ public class State {
 					+ pTop[nextPiece][orient][i]; h++) {
 				field[h][i + slot] = turn;
 			}
+			colMask[i + slot] |= (1 << (height + pTop[nextPiece][orient][i]))
+					- (1 << (height + pBottom[nextPiece][orient][i]));
 		}
 
 		// adjust top
@@ -199,21 +302,28 @@ public class State {
 			if (full) {
 				rowsCleared++;
 				cleared++;
-				// for each column
+				// slide the rows above down by moving row references only,
+				// the removed row is emptied and becomes the top row
+				int[] removed = field[r];
+				System.arraycopy(field, r + 1, field, r, ROWS - 1 - r);
+				Arrays.fill(removed, 0);
+				field[ROWS - 1] = removed;
+
+				// remove bit r from every column
+				int below = (1 << r) - 1;
 				for (int c = 0; c < COLS; c++) {
-
-					// slide down all bricks
-					for (int i = r; i < top[c]; i++) {
-						field[i][c] = field[i + 1][c];
-					}
-					// lower the top
-					top[c]--;
-					while (top[c] >= 1 && field[top[c] - 1][c] == 0)
-						top[c]--;
+					colMask[c] = (colMask[c] & below) | ((colMask[c] >>> 1) & ~below);
 				}
 			}
 		}
 
+		// lower the tops to the highest filled cell left in each column
+		if (rowsCleared > 0) {
+			for (int c = 0; c < COLS; c++) {
+				top[c] = 32 - Integer.numberOfLeadingZeros(colMask[c]);
+			}
+		}
+
 		// pick a new piece
 		nextPiece = randomPiece();
 
@@ -0,0 +1,106 @@
+package tetris;
+
+/**
+ * Cache of where pieces land, keyed by the surface under the piece only. The landing height of a move
+ * and the new heights of its columns depend only on the heights of the columns it covers, and only
+ * through their differences, so the key is (piece, orientation, heights of the covered columns relative
+ * to the lowest one). One lookup gives the landing offset and the new heights, both relative to that
+ * lowest column.
+ * 
+ * Entries never change once computed, so the tables are shared by every thread without locking: a
+ * thread that finds an empty entry computes it and writes the same value any other thread would.
+ */
+public final class SurfaceCache {
+
+	private static final int BITS = 5; // per relative height, heights are 0 to State.ROWS
+	private static final int MASK = (1 << BITS) - 1;
+	private static final int VALID = 1 << 30;
+
+	// [piece][orient][relative profile] -> entry, 0 when not computed yet
+	private static final int[][][] TABLE = new int[State.N_PIECES][][];
+
+	static {
+		for (int piece = 0; piece < State.N_PIECES; piece++) {
+			TABLE[piece] = new int[State.getpOrients()[piece]][];
+			for (int orient = 0; orient < State.getpOrients()[piece]; orient++) {
+				TABLE[piece][orient] = new int[1 << (BITS * State.getpWidth()[piece][orient])];
+			}
+		}
+	}
+
+	private SurfaceCache() {
+	}
+
+	/**
+	 * Description: Gives the entry of a move from the heights of the board's columns. Read it with
+	 * landingOffset() and topOffset(), adding the lowest height of the covered columns
+	 * @param piece
+	 * @param orient
+	 * @param slot
+	 * @param heights height of every column of the board
+	 * @param base lowest height among the covered columns
+	 * @return
+	 */
+	public static int lookup(int piece, int orient, int slot, int[] heights, int base) {
+		int width = State.getpWidth()[piece][orient];
+		int profile = 0;
+		for (int c = width - 1; c >= 0; c--) {
+			profile = profile << BITS | (heights[slot + c] - base);
+		}
+
+		int[] table = TABLE[piece][orient];
+		int entry = table[profile];
+		if (entry != 0) {
+			return entry;
+		}
+
+		int[] bottom = State.getpBottom()[piece][orient];
+		int[] pTop = State.getpTop()[piece][orient];
+		int landing = (profile & MASK) - bottom[0];
+		for (int c = 1; c < width; c++) {
+			landing = Math.max(landing, (profile >>> (BITS * c) & MASK) - bottom[c]);
+		}
+		entry = VALID | landing;
+		for (int c = 0; c < width; c++) {
+			entry |= (landing + pTop[c]) << (BITS * (c + 1));
+		}
+		table[profile] = entry;
+		return entry;
+	}
+
+	/**
+	 * Description: Lowest height among the columns a move covers
+	 * @param piece
+	 * @param orient
+	 * @param slot
+	 * @param heights
+	 * @return
+	 */
+	public static int base(int piece, int orient, int slot, int[] heights) {
+		int base = heights[slot];
+		for (int c = 1; c < State.getpWidth()[piece][orient]; c++) {
+			base = Math.min(base, heights[slot + c]);
+		}
+		return base;
+	}
+
+	/**
+	 * Description: Height of the piece's bottom row, relative to the lowest covered column
+	 * @param entry
+	 * @return
+	 */
+	public static int landingOffset(int entry) {
+		return entry & MASK;
+	}
+
+	/**
+	 * Description: New height of the piece's column c, relative to the lowest covered column (before
+	 * any line clear)
+	 * @param entry
+	 * @param c
+	 * @return
+	 */
+	public static int topOffset(int entry, int c) {
+		return entry >>> (BITS * (c + 1)) & MASK;
+	}
+}
@@ -0,0 +1,106 @@
+package tetris;
+
+/**
+ * Feature engine working on a BitBoard. Row transitions are read from the row pattern tables (see
+ * RowTables), while holes, column transitions and wells are counted a whole column at a time with bit
+ * operations on the column masks, with no per-cell branches.
+ */
+public class TableFeatureEngine extends FeatureEngine {
+
+	public static final String NAME = "table";
+
+	private static final int ROWS = State.ROWS;
+	private static final int COLS = State.COLS;
+	private static final int ALL_ROWS = (1 << ROWS) - 1;
+
+	private final BitBoard base = new BitBoard();
+	private final BitBoard board = new BitBoard();
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int[][] compute(int[][] field, int[] top, int piece, int[][] legalMoves) {
+		base.load(field);
+
+		int[][] features = new int[legalMoves.length][];
+		for (int m = 0; m < legalMoves.length; m++) {
+			int orient = legalMoves[m][State.ORIENT];
+			int slot = legalMoves[m][State.SLOT];
+			board.copyFrom(base);
+			if (board.place(piece, orient, slot) < 0) {
+				features[m] = FeatureCache.LOST;
+				continue;
+			}
+
+			int[] f = new int[Features.COUNT];
+			// FILLED_LINES stays 0, see Features.compute()
+			f[Features.HOLES] = holes(board.getCols());
+			f[Features.WELL_SUMS] = wellSums(board.getCols());
+			f[Features.LANDING_HEIGHT] = Features.landingHeight(base.height(slot), 
+																State.getpHeight()[piece][orient]);
+			f[Features.ROW_TRANSITIONS] = rowTransitions(board.getRows());
+			f[Features.COL_TRANSITIONS] = colTransitions(board.getCols());
+			features[m] = f;
+		}
+		return features;
+	}
+
+	/**
+	 * Description: Empty cells below the highest filled cell of their column
+	 */
+	static int holes(int[] cols) {
+		int holes = 0;
+		for (int c = 0; c < COLS; c++) {
+			int below = (1 << (32 - Integer.numberOfLeadingZeros(cols[c]))) - 1;
+			holes += Integer.bitCount(~cols[c] & below);
+		}
+		return holes;
+	}
+
+	/**
+	 * Description: Well sums. A well cell is empty with both neighbouring columns filled on its row 
+	 * (walls count as filled) and adds the number of empty cells from it down to the next filled cell
+	 * of its column, i.e. its distance to the highest filled cell below it
+	 */
+	static int wellSums(int[] cols) {
+		int wellSum = 0;
+		for (int c = 0; c < COLS; c++) {
+			int left = c == 0 ? ALL_ROWS : cols[c - 1];
+			int right = c == COLS - 1 ? ALL_ROWS : cols[c + 1];
+			int wells = ~cols[c] & left & right & ALL_ROWS;
+			while (wells != 0) {
+				int row = Integer.numberOfTrailingZeros(wells);
+				wells &= wells - 1;
+				int filledBelow = 31 - Integer.numberOfLeadingZeros(cols[c] & ((1 << row) - 1));
+				wellSum += row - filledBelow;
+			}
+		}
+		return wellSum;
+	}
+
+	/**
+	 * Description: Row transitions of every row but the top one
+	 */
+	static int rowTransitions(int[] rows) {
+		int transitions = 0;
+		for (int r = 0; r < ROWS - 1; r++) {
+			transitions += RowTables.ROW_TRANSITIONS[rows[r]];
+		}
+		return transitions;
+	}
+
+	/**
+	 * Description: Column transitions - the cells that differ from the cell below, the floor counts as
+	 * filled
+	 */
+	static int colTransitions(int[] cols) {
+		int transitions = 0;
+		for (int c = 0; c < COLS; c++) {
+			transitions += Integer.bitCount((cols[c] ^ (cols[c] << 1 | 1)) & ALL_ROWS);
+		}
+		return transitions;
+	}
+}
@@ -1,5 +1,7 @@
 package tetris;
 
+import java.util.Arrays;
+
 public class TestState {
 	private int[][] board;
 	private int[] boardTop;
@@ -100,18 +102,22 @@ public class TestState {
 				// if the row was full - remove it and slide above stuff down
 				if (full) {
 					rowsCleared++;
-					// for each column
-					for (int c = 0; c < State.COLS; c++) {
-	
-						// slide down all bricks
-						for (int i = r; i < boardTop[c]; i++) {
-							board[i][c] = board[i + 1][c];
-						}
-						// lower the top
+					// slide down by moving row references only, the removed row is emptied and
+					// becomes the top row
+					int[] removed = board[r];
+					System.arraycopy(board, r + 1, board, r, State.ROWS - 1 - r);
+					Arrays.fill(removed, 0);
+					board[State.ROWS - 1] = removed;
+				}
+			}
+			
+			// lower the tops - full rows are below every top, so each column loses all of them and
+			// only a column whose top cell was cleared has to look further down
+			if (rowsCleared > 0) {
+				for (int c = 0; c < State.COLS; c++) {
+					boardTop[c] -= rowsCleared;
+					while (boardTop[c] >= 1 && board[boardTop[c] - 1][c] == 0)
 						boardTop[c]--;
-						while (boardTop[c] >= 1 && board[boardTop[c] - 1][c] == 0)
-							boardTop[c]--;
-					}
 				}
 			}
 		}		